@@ -0,0 +1,19 @@
+package org.apirest.libraryapi.api.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@NoArgsConstructor
+@AllArgsConstructor
+@Data
+@Builder
+public class BookAvailabilityBatchDto {
+
+    private List<BookAvailabilityDto> books;
+
+    private List<String> missing;
+}
@@ -0,0 +1,26 @@
+package org.apirest.libraryapi.api.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@NoArgsConstructor
+@AllArgsConstructor
+@Data
+@Builder
+public class BookAvailabilityDto {
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String isbn;
+
+    private Long bookId;
+
+    private String status;
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Long currentLoanId;
+
+    private long borrowCount;
+}
@@ -0,0 +1,21 @@
+package org.apirest.libraryapi.api.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@NoArgsConstructor
+@AllArgsConstructor
+@Data
+@Builder
+public class BookBatchErrorDto {
+
+    private int index;
+
+    private String isbn;
+
+    private List<String> errors;
+}
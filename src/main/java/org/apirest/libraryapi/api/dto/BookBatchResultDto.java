@@ -0,0 +1,21 @@
+package org.apirest.libraryapi.api.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@NoArgsConstructor
+@AllArgsConstructor
+@Data
+@Builder
+public class BookBatchResultDto {
+
+    private int received;
+
+    private int imported;
+
+    private List<BookBatchErrorDto> errors;
+}
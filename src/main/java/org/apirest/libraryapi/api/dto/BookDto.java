@@ -1,6 +1,8 @@
 package org.apirest.libraryapi.api.dto;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.Positive;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
@@ -22,4 +24,14 @@ public class BookDto {
 
     @NotEmpty
     private String isbn;
+
+    @Positive
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Integer loanDays;
+
+    /**
+     * Filled in responses only, ignored when the book is created or updated.
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private BookAvailabilityDto availability;
 }
@@ -1,11 +1,15 @@
 package org.apirest.libraryapi.api.dto;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.Positive;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
+import java.time.LocalDate;
+
 @NoArgsConstructor
 @AllArgsConstructor
 @Data
@@ -23,5 +27,11 @@ public class LoanDto {
     @NotEmpty
     private String email;
 
+    @Positive
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Integer loanDays;
+
+    private LocalDate dueDate;
+
     private BookDto bookDto;
 }
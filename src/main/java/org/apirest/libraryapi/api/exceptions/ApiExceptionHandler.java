@@ -1,6 +1,7 @@
 package org.apirest.libraryapi.api.exceptions;
 
 import org.apirest.libraryapi.exception.BusinessException;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.validation.BindingResult;
@@ -26,6 +27,12 @@ public class ApiExceptionHandler {
         return new ApiErrors(e);
     }
 
+    @ExceptionHandler(OptimisticLockingFailureException.class)
+    @ResponseStatus(HttpStatus.CONFLICT)
+    public ApiErrors handleOptimisticLockingFailure(OptimisticLockingFailureException e){
+        return new ApiErrors("O registro foi alterado por outra requisição, tente novamente");
+    }
+
     @ExceptionHandler(ResponseStatusException.class)
     public ResponseEntity handleResponseStatusException(ResponseStatusException e){
         return new ResponseEntity(new ApiErrors(e), e.getStatusCode());
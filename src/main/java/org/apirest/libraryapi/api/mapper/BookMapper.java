@@ -0,0 +1,58 @@
+package org.apirest.libraryapi.api.mapper;
+
+import org.apirest.libraryapi.api.dto.BookAvailabilityDto;
+import org.apirest.libraryapi.api.dto.BookDto;
+import org.apirest.libraryapi.model.entity.Book;
+import org.apirest.libraryapi.model.entity.BookAvailability;
+
+public final class BookMapper {
+
+    private BookMapper(){
+    }
+
+    public static BookDto toDto(Book book){
+        if (book == null){
+            return null;
+        }
+        BookDto dto = new BookDto();
+        dto.setId(book.getId());
+        dto.setTitle(book.getTitle());
+        dto.setAuthor(book.getAuthor());
+        dto.setIsbn(book.getIsbn());
+        dto.setLoanDays(book.getLoanDays());
+        return dto;
+    }
+
+    public static BookDto toDto(Book book, BookAvailability availability){
+        BookDto dto = toDto(book);
+        if (dto != null){
+            dto.setAvailability(toDto(availability));
+        }
+        return dto;
+    }
+
+    public static BookAvailabilityDto toDto(BookAvailability availability){
+        if (availability == null){
+            return null;
+        }
+        BookAvailabilityDto dto = new BookAvailabilityDto();
+        dto.setBookId(availability.getBookId());
+        dto.setStatus(availability.getStatus().name());
+        dto.setCurrentLoanId(availability.getCurrentLoanId());
+        dto.setBorrowCount(availability.getBorrowCount());
+        return dto;
+    }
+
+    public static Book toEntity(BookDto dto){
+        if (dto == null){
+            return null;
+        }
+        Book book = new Book();
+        book.setId(dto.getId());
+        book.setTitle(dto.getTitle());
+        book.setAuthor(dto.getAuthor());
+        book.setIsbn(dto.getIsbn());
+        book.setLoanDays(dto.getLoanDays());
+        return book;
+    }
+}
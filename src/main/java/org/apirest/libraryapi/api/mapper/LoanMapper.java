@@ -0,0 +1,37 @@
+package org.apirest.libraryapi.api.mapper;
+
+import org.apirest.libraryapi.api.dto.LoanDto;
+import org.apirest.libraryapi.model.entity.Book;
+import org.apirest.libraryapi.model.entity.Loan;
+
+public final class LoanMapper {
+
+    private LoanMapper(){
+    }
+
+    public static LoanDto toDto(Loan loan){
+        if (loan == null){
+            return null;
+        }
+        Book book = loan.getBook();
+        LoanDto dto = new LoanDto();
+        dto.setId(loan.getId());
+        dto.setIsbn(book != null ? book.getIsbn() : null);
+        dto.setCustomer(loan.getCustomer());
+        dto.setEmail(loan.getCustomerEmail());
+        dto.setDueDate(loan.getDueDate());
+        dto.setBookDto(BookMapper.toDto(book));
+        return dto;
+    }
+
+    public static Loan toEntity(LoanDto dto){
+        if (dto == null){
+            return null;
+        }
+        Loan loan = new Loan();
+        loan.setId(dto.getId());
+        loan.setCustomer(dto.getCustomer());
+        loan.setCustomerEmail(dto.getEmail());
+        return loan;
+    }
+}
@@ -1,29 +1,53 @@
 package org.apirest.libraryapi.api.resource;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import jakarta.validation.Valid;
+import jakarta.validation.Validator;
+import org.apirest.libraryapi.api.dto.BookAvailabilityBatchDto;
+import org.apirest.libraryapi.api.dto.BookAvailabilityDto;
+import org.apirest.libraryapi.api.dto.BookBatchErrorDto;
+import org.apirest.libraryapi.api.dto.BookBatchResultDto;
 import org.apirest.libraryapi.api.dto.BookDto;
+import org.apirest.libraryapi.api.dto.CursorPageDto;
 import org.apirest.libraryapi.api.dto.LoanDto;
+import org.apirest.libraryapi.api.dto.SliceDto;
+import org.apirest.libraryapi.api.mapper.BookMapper;
+import org.apirest.libraryapi.api.mapper.LoanMapper;
 import org.apirest.libraryapi.model.entity.Book;
+import org.apirest.libraryapi.model.entity.BookAvailability;
 import org.apirest.libraryapi.model.entity.Loan;
+import org.apirest.libraryapi.model.repository.LoanRepository.LoansVersion;
 import org.apirest.libraryapi.service.BookService;
 import org.apirest.libraryapi.service.LoanService;
-import org.modelmapper.ModelMapper;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Window;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import org.springframework.web.server.ResponseStatusException;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 @RestController
@@ -34,27 +58,93 @@ public class BookController {
 
     private final LoanService loanService;
 
-    private final ModelMapper modelMapper;
+    private final Validator validator;
 
-    public BookController(BookService bookService, ModelMapper modelMapper, LoanService loanService){
+    private final ObjectMapper objectMapper;
+
+    public BookController(BookService bookService, LoanService loanService, Validator validator,
+                          ObjectMapper objectMapper){
         this.bookService = bookService;
-        this.modelMapper = modelMapper;
         this.loanService = loanService;
+        this.validator = validator;
+        this.objectMapper = objectMapper;
     }
 
     @PostMapping
     @ResponseStatus(HttpStatus.CREATED)
     public BookDto create(@RequestBody @Valid BookDto dto){
-        Book entity = modelMapper.map(dto, Book.class);
+        Book entity = BookMapper.toEntity(dto);
         entity = bookService.save(entity);
-        return modelMapper.map(entity, BookDto.class);
+        return BookMapper.toDto(entity, BookAvailability.available(entity.getId()));
+    }
+
+    @PostMapping("/batch")
+    public BookBatchResultDto importBooks(@RequestBody List<BookDto> dtos){
+        List<BookBatchErrorDto> errors = new ArrayList<>();
+        List<Book> books = new ArrayList<>(dtos.size());
+        List<Integer> positions = new ArrayList<>(dtos.size());
+        for (int i = 0; i < dtos.size(); i++){
+            BookDto dto = dtos.get(i);
+            List<String> messages = validator.validate(dto).stream()
+                    .map(violation -> violation.getPropertyPath() + " " + violation.getMessage())
+                    .sorted()
+                    .toList();
+            if (messages.isEmpty()){
+                books.add(BookMapper.toEntity(dto));
+                positions.add(i);
+            } else {
+                errors.add(new BookBatchErrorDto(i, dto.getIsbn(), messages));
+            }
+        }
+        List<BookBatchErrorDto> rejected = bookService.importBooks(books);
+        rejected.forEach(error -> error.setIndex(positions.get(error.getIndex())));
+        errors.addAll(rejected);
+        errors.sort(Comparator.comparingInt(BookBatchErrorDto::getIndex));
+        return new BookBatchResultDto(dtos.size(), books.size() - rejected.size(), errors);
+    }
+
+    @GetMapping(value = "/export", produces = NdJson.MEDIA_TYPE)
+    public ResponseEntity<StreamingResponseBody> export(){
+        StreamingResponseBody body = NdJson.<BookDto>stream(objectMapper,
+                writer -> bookService.exportBooks(book -> writer.accept(BookMapper.toDto(book))));
+        return ResponseEntity.ok().contentType(NdJson.NDJSON).body(body);
     }
 
     @GetMapping("/{id}")
-    public BookDto getBook(@PathVariable Long id){
-        return bookService.getBookById(id).map(book -> modelMapper.map(book, BookDto.class)).orElseThrow(
+    public ResponseEntity<BookDto> getBook(@PathVariable Long id, WebRequest request){
+        Long version = bookService.getBookVersion(id).orElseThrow(
+                ()-> new ResponseStatusException(HttpStatus.NOT_FOUND)
+        );
+        BookAvailability availability = loanService.getAvailability(id);
+        String eTag = eTag(version, availability.getVersion());
+        if (request.checkNotModified(eTag)){
+            return null;
+        }
+        Book book = bookService.getBookById(id, version).orElseThrow(
                 ()-> new ResponseStatusException(HttpStatus.NOT_FOUND)
         );
+        return ResponseEntity.ok().eTag(eTag).body(BookMapper.toDto(book, availability));
+    }
+
+    @GetMapping("/{id}/availability")
+    public ResponseEntity<BookAvailabilityDto> getAvailability(@PathVariable Long id, WebRequest request){
+        bookService.getBookVersion(id).orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND));
+        BookAvailability availability = loanService.getAvailability(id);
+        String eTag = eTag(availability.getVersion());
+        if (request.checkNotModified(eTag)){
+            return null;
+        }
+        return ResponseEntity.ok().eTag(eTag).body(BookMapper.toDto(availability));
+    }
+
+    @GetMapping(value = "/availability", params = "isbn")
+    public BookAvailabilityBatchDto getAvailabilityByIsbn(@RequestParam List<String> isbn){
+        return availabilityByIsbn(isbn);
+    }
+
+    @PostMapping("/availability")
+    public BookAvailabilityBatchDto findAvailabilityByIsbn(@RequestBody List<String> isbns){
+        return availabilityByIsbn(isbns);
     }
 
     @DeleteMapping("/{id}")
@@ -65,37 +155,119 @@ public class BookController {
         bookService.delete(book);
     }
 
+    /**
+     * Replaces the editable fields of the book. With {@code If-Match} the update only applies to the
+     * version in the tag and answers 412 once the book changed; without it a concurrent update answers 409.
+     */
     @PutMapping("/{id}")
-    public BookDto update(@PathVariable Long id, @RequestBody @Valid BookDto dto){
-        Book book = bookService.getBookById(id).orElseThrow(
-                ()-> new ResponseStatusException(HttpStatus.NOT_FOUND));
-        book.setTitle(dto.getTitle());
-        book.setAuthor(dto.getAuthor());
-        return modelMapper.map(bookService.update(book), BookDto.class);
+    public BookDto update(@PathVariable Long id, @RequestBody @Valid BookDto dto,
+                          @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch){
+        Long expectedVersion = ifMatch == null || ifMatch.trim().equals("*") ? null : bookVersion(ifMatch);
+        Book book;
+        try {
+            book = bookService.update(id, expectedVersion, current -> {
+                current.setTitle(dto.getTitle());
+                current.setAuthor(dto.getAuthor());
+                current.setLoanDays(dto.getLoanDays());
+            }).orElseThrow(()-> new ResponseStatusException(HttpStatus.NOT_FOUND));
+        } catch (OptimisticLockingFailureException e){
+            if (expectedVersion == null){
+                throw e;
+            }
+            throw new ResponseStatusException(HttpStatus.PRECONDITION_FAILED);
+        }
+        return BookMapper.toDto(book, loanService.getAvailability(id));
     }
 
     @GetMapping
     public Page<BookDto> findBookByFilter(BookDto dto, Pageable pageable){
-        Book filter = modelMapper.map(dto, Book.class);
+        Book filter = BookMapper.toEntity(dto);
         Page<Book> result = bookService.findByFilter(filter, pageable);
-        List<BookDto> list = result.getContent().stream().map(
-                entity -> modelMapper.map(entity, BookDto.class)).collect(Collectors.toList());
-        return new PageImpl<>(list, pageable, result.getTotalElements());
+        return new PageImpl<>(withAvailability(result.getContent()), pageable, result.getTotalElements());
+    }
+
+    @GetMapping(params = "slice=true")
+    public SliceDto<BookDto> findBookSliceByFilter(BookDto dto, Pageable pageable){
+        Book filter = BookMapper.toEntity(dto);
+        Slice<Book> result = bookService.findSliceByFilter(filter, pageable);
+        return new SliceDto<>(withAvailability(result.getContent()), result.getNumber(), result.getSize(), result.hasNext());
+    }
+
+    @GetMapping(params = "after")
+    public CursorPageDto<BookDto> findBookByFilterAfter(BookDto dto, @RequestParam String after,
+                                                        @RequestParam(defaultValue = "20") int size){
+        Book filter = BookMapper.toEntity(dto);
+        Window<Book> window = bookService.findByFilter(filter, Cursors.decode(after), Cursors.size(size));
+        return Cursors.toDto(window, withAvailability(window.getContent()));
     }
 
     @GetMapping("/{id}/loans")
-    public Page<LoanDto> loansByBook(@PathVariable Long id, Pageable pageable) {
+    public ResponseEntity<Page<LoanDto>> loansByBook(@PathVariable Long id, Pageable pageable, WebRequest request) {
         Book book = bookService.getBookById(id).orElseThrow(
                 () -> new ResponseStatusException(HttpStatus.NOT_FOUND));
+        LoansVersion loans = loanService.getLoansVersion(book);
+        String eTag = eTag(book.getVersion(), loans.getCount(), loans.getVersions(), loans.getLastId());
+        if (request.checkNotModified(eTag)){
+            return null;
+        }
         Page<Loan> result = loanService.getLoansByBook(book, pageable);
-        List<LoanDto> list = result.getContent().stream().map(
-                loan -> {
-                    Book loanBook = loan.getBook();
-                    BookDto bookDto = modelMapper.map(loanBook, BookDto.class);
-                    LoanDto loanDto = modelMapper.map(loan, LoanDto.class);
-                    loanDto.setBookDto(bookDto);
-                    return loanDto;
-                }).collect(Collectors.toList());
-        return new PageImpl<>(list, pageable, result.getTotalElements());
+        List<LoanDto> list = result.getContent().stream().map(LoanMapper::toDto).collect(Collectors.toList());
+        return ResponseEntity.ok().eTag(eTag).body(new PageImpl<>(list, pageable, result.getTotalElements()));
+    }
+
+    /**
+     * Maps the books along with their availability, looked up for the whole page at once.
+     */
+    private List<BookDto> withAvailability(List<Book> books){
+        Map<Long, BookAvailability> availability = loanService.getAvailability(books.stream().map(Book::getId).toList());
+        return books.stream().map(book -> BookMapper.toDto(book, availability.get(book.getId()))).collect(Collectors.toList());
+    }
+
+    /**
+     * Availability of the books with the given isbns, in request order, resolving all isbns and then
+     * all availabilities at once instead of one lookup per book.
+     */
+    private BookAvailabilityBatchDto availabilityByIsbn(List<String> isbns){
+        List<String> distinct = isbns.stream().distinct().toList();
+        Map<String, Long> ids = bookService.getBookIdsByIsbn(distinct);
+        Map<Long, BookAvailability> availability = loanService.getAvailability(ids.values());
+        List<BookAvailabilityDto> books = new ArrayList<>(ids.size());
+        List<String> missing = new ArrayList<>();
+        for (String isbn : distinct){
+            Long id = ids.get(isbn);
+            if (id == null){
+                missing.add(isbn);
+            } else {
+                BookAvailabilityDto dto = BookMapper.toDto(availability.get(id));
+                dto.setIsbn(isbn);
+                books.add(dto);
+            }
+        }
+        return new BookAvailabilityBatchDto(books, missing);
+    }
+
+    /**
+     * Book version of an entity tag sent back by the client, the first number of the tags built by
+     * {@link #eTag(Object...)}. Tags that were not issued here match no version.
+     */
+    private static Long bookVersion(String eTag){
+        String value = eTag.trim();
+        if (value.startsWith("W/")){
+            value = value.substring(2);
+        }
+        value = value.replace("\"", "");
+        int end = value.indexOf('-');
+        try {
+            return Long.valueOf(end < 0 ? value : value.substring(0, end));
+        } catch (NumberFormatException e){
+            throw new ResponseStatusException(HttpStatus.PRECONDITION_FAILED);
+        }
+    }
+
+    /**
+     * Strong entity tag built from version numbers, so it can be checked before anything is loaded.
+     */
+    private static String eTag(Object... versions){
+        return Arrays.stream(versions).map(String::valueOf).collect(Collectors.joining("-", "\"", "\""));
     }
 }
@@ -0,0 +1,65 @@
+package org.apirest.libraryapi.api.resource;
+
+import org.apirest.libraryapi.api.dto.CursorPageDto;
+import org.springframework.data.domain.KeysetScrollPosition;
+import org.springframework.data.domain.ScrollPosition;
+import org.springframework.data.domain.Window;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Opaque cursor tokens for the keyset ({@code ?after=}) listing mode. A token carries the id
+ * of the last row of the previous window; an empty token starts from the beginning.
+ */
+final class Cursors {
+
+    static final int MAX_SIZE = 1000;
+
+    private static final String KEY = "id";
+
+    private Cursors(){
+    }
+
+    static KeysetScrollPosition decode(String token){
+        if (token == null || token.isBlank()){
+            return ScrollPosition.keyset();
+        }
+        try {
+            String value = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            return ScrollPosition.forward(Map.of(KEY, Long.parseLong(value)));
+        } catch (IllegalArgumentException e){
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid cursor");
+        }
+    }
+
+    static int size(int size){
+        return Math.min(Math.max(size, 1), MAX_SIZE);
+    }
+
+    static <T, D> CursorPageDto<D> toDto(Window<T> window, Function<T, D> mapper){
+        return toDto(window, window.getContent().stream().map(mapper).toList());
+    }
+
+    /**
+     * Page of the window with its content already mapped, in the same order.
+     */
+    static <T, D> CursorPageDto<D> toDto(Window<T> window, List<D> content){
+        String nextCursor = null;
+        if (window.hasNext() && !window.isEmpty()){
+            nextCursor = encode(window.positionAt(window.size() - 1));
+        }
+        return new CursorPageDto<>(content, content.size(), nextCursor);
+    }
+
+    private static String encode(ScrollPosition position){
+        Object id = ((KeysetScrollPosition) position).getKeys().get(KEY);
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(String.valueOf(id).getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -1,26 +1,33 @@
 package org.apirest.libraryapi.api.resource;
 
-import org.apirest.libraryapi.api.dto.BookDto;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apirest.libraryapi.api.dto.CursorPageDto;
 import org.apirest.libraryapi.api.dto.LoanDto;
 import org.apirest.libraryapi.api.dto.LoanFilterDto;
+import org.apirest.libraryapi.api.dto.LoanReturnResultDto;
 import org.apirest.libraryapi.api.dto.ReturnedLoanDto;
+import org.apirest.libraryapi.api.dto.SliceDto;
+import org.apirest.libraryapi.api.mapper.LoanMapper;
 import org.apirest.libraryapi.model.entity.Book;
 import org.apirest.libraryapi.model.entity.Loan;
 import org.apirest.libraryapi.service.BookService;
 import org.apirest.libraryapi.service.LoanService;
-import org.modelmapper.ModelMapper;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PatchMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import org.springframework.web.server.ResponseStatusException;
 
 import java.time.LocalDate;
@@ -35,12 +42,12 @@ public class LoanController {
 
     private final LoanService loanService;
 
-    private final ModelMapper modelMapper;
+    private final ObjectMapper objectMapper;
 
-    public LoanController(BookService bookService, LoanService loanService, ModelMapper modelMapper){
+    public LoanController(BookService bookService, LoanService loanService, ObjectMapper objectMapper){
         this.bookService = bookService;
         this.loanService = loanService;
-        this.modelMapper = modelMapper;
+        this.objectMapper = objectMapper;
     }
 
     @PostMapping
@@ -49,37 +56,58 @@ public class LoanController {
         Book book = bookService.getBookByIsbn(dto.getIsbn()).orElseThrow(
                 ()-> new ResponseStatusException(HttpStatus.BAD_REQUEST, "Isbn non existent")
         );
-        Loan loan = Loan.builder()
-                .customer(dto.getCustomer())
-                .book(book)
-                .loanDate(LocalDate.now())
-                .build();
+        if (dto.getLoanDays() != null && dto.getLoanDays() <= 0){
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid loan days");
+        }
+        Loan loan = LoanMapper.toEntity(dto);
+        loan.setBook(book);
+        loan.setLoanDate(LocalDate.now());
+        if (dto.getLoanDays() != null){
+            loan.setDueDate(loan.getLoanDate().plusDays(dto.getLoanDays()));
+        }
         loan = loanService.save(loan);
         return loan.getId();
     }
 
+    @GetMapping(value = "/export", produces = NdJson.MEDIA_TYPE)
+    public ResponseEntity<StreamingResponseBody> export(){
+        StreamingResponseBody body = NdJson.<LoanDto>stream(objectMapper,
+                writer -> loanService.exportLoans(loan -> writer.accept(LoanMapper.toDto(loan))));
+        return ResponseEntity.ok().contentType(NdJson.NDJSON).body(body);
+    }
+
+    @PatchMapping("/returns")
+    public LoanReturnResultDto returnBooks(@RequestBody List<Long> ids){
+        return loanService.returnLoans(ids);
+    }
+
     @PatchMapping("/{id}")
     public void returnBook(@PathVariable Long id, @RequestBody ReturnedLoanDto dto){
-        Loan loan = loanService.getById(id).orElseThrow(
+        loanService.returnLoan(id, Boolean.TRUE.equals(dto.getReturned())).orElseThrow(
                 ()-> new ResponseStatusException(HttpStatus.NOT_FOUND)
         );
-        loan.setReturned(dto.getReturned());
-        loanService.update(loan);
     }
 
     @GetMapping
     public Page<LoanDto> findByFilter(LoanFilterDto dto, Pageable page){
         Page<Loan> result = loanService.findByFilter(dto, page);
-        List<LoanDto> loans = result.getContent().stream().map(
-                entity -> {
-                    Book book = entity.getBook();
-                    BookDto bookDto = modelMapper.map(book, BookDto.class);
-                    LoanDto loanDto = modelMapper.map(entity, LoanDto.class);
-                    loanDto.setBookDto(bookDto);
-                    return loanDto;
-                }).collect(Collectors.toList());
+        List<LoanDto> loans = result.getContent().stream().map(LoanMapper::toDto).collect(Collectors.toList());
         return new PageImpl<>(loans, page, result.getTotalElements());
     }
 
+    @GetMapping(params = "slice=true")
+    public SliceDto<LoanDto> findSliceByFilter(LoanFilterDto dto, Pageable page){
+        Slice<Loan> result = loanService.findSliceByFilter(dto, page);
+        List<LoanDto> loans = result.getContent().stream().map(LoanMapper::toDto).collect(Collectors.toList());
+        return new SliceDto<>(loans, result.getNumber(), result.getSize(), result.hasNext());
+    }
+
+    @GetMapping(params = "after")
+    public CursorPageDto<LoanDto> findByFilterAfter(LoanFilterDto dto, @RequestParam String after,
+                                                    @RequestParam(defaultValue = "20") int size){
+        return Cursors.toDto(loanService.findByFilter(dto, Cursors.decode(after), Cursors.size(size)),
+                LoanMapper::toDto);
+    }
+
 
 }
@@ -0,0 +1,44 @@
+package org.apirest.libraryapi.api.resource;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.function.Consumer;
+
+/**
+ * Newline-delimited JSON responses for the export endpoints. Rows are serialized one at a time
+ * into a single generator as the source produces them, so nothing is buffered besides the
+ * generator's own output buffer.
+ */
+final class NdJson {
+
+    static final String MEDIA_TYPE = "application/x-ndjson";
+
+    static final MediaType NDJSON = MediaType.parseMediaType(MEDIA_TYPE);
+
+    private NdJson(){
+    }
+
+    static <T> StreamingResponseBody stream(ObjectMapper mapper, Consumer<Consumer<T>> source){
+        ObjectWriter writer = mapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        return out -> {
+            try (JsonGenerator generator = writer.createGenerator(out)) {
+                generator.setRootValueSeparator(null);
+                source.accept(row -> {
+                    try {
+                        writer.writeValue(generator, row);
+                        generator.writeRaw('\n');
+                    } catch (IOException e){
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            }
+        };
+    }
+}
@@ -0,0 +1,31 @@
+package org.apirest.libraryapi.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.aop.Advisor;
+import org.springframework.aop.aspectj.AspectJExpressionPointcut;
+import org.springframework.aop.support.DefaultPointcutAdvisor;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Times every public method of the services and the Spring Data repositories, see
+ * {@link MethodMetricsInterceptor}. Disabled with {@code application.metrics.methods.enabled=false},
+ * in which case no proxy or interceptor is involved at all.
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "application.metrics.methods", name = "enabled", havingValue = "true", matchIfMissing = true)
+public class MethodMetricsConfig {
+
+    static final String POINTCUT = "execution(public * org.apirest.libraryapi.service.impl..*.*(..))"
+            + " || execution(public * org.apirest.libraryapi.service.ScheduleService.*(..))"
+            + " || this(org.springframework.data.repository.Repository)";
+
+    @Bean
+    static Advisor methodMetricsAdvisor(ObjectProvider<MeterRegistry> meterRegistry){
+        AspectJExpressionPointcut pointcut = new AspectJExpressionPointcut();
+        pointcut.setExpression(POINTCUT);
+        return new DefaultPointcutAdvisor(pointcut, new MethodMetricsInterceptor(meterRegistry));
+    }
+}
@@ -0,0 +1,126 @@
+package org.apirest.libraryapi.config;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.springframework.aop.ProxyMethodInvocation;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Window;
+import org.springframework.data.repository.Repository;
+import org.springframework.util.ClassUtils;
+
+import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records, per class and method, a latency timer ({@value #TIMER}), a counter of thrown
+ * exceptions ({@value #ERRORS}) and a counter of rows returned ({@value #ROWS}) for methods that
+ * return collections, pages, windows or optionals. Percentiles and histograms come from the
+ * {@code management.metrics.distribution} settings for {@value #TIMER}.
+ * <p>
+ * Meters are created on the first call of each method and looked up without allocating
+ * afterwards; repositories are tagged with their interface name, not the Spring Data proxy.
+ */
+class MethodMetricsInterceptor implements MethodInterceptor {
+
+    static final String TIMER = "library.method";
+
+    static final String ERRORS = "library.method.errors";
+
+    static final String ROWS = "library.method.rows";
+
+    private final ObjectProvider<MeterRegistry> meterRegistry;
+
+    private final Map<Class<?>, Map<Method, Meters>> meters = new ConcurrentHashMap<>();
+
+    MethodMetricsInterceptor(ObjectProvider<MeterRegistry> meterRegistry){
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public Object invoke(MethodInvocation invocation) throws Throwable {
+        Meters meters = meters(invocation);
+        long start = System.nanoTime();
+        try {
+            Object result = invocation.proceed();
+            meters.returned(result);
+            return result;
+        } catch (Throwable e){
+            meters.failed(e);
+            throw e;
+        } finally {
+            meters.timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private Meters meters(MethodInvocation invocation){
+        Class<?> type = invocation instanceof ProxyMethodInvocation proxied
+                ? proxied.getProxy().getClass()
+                : invocation.getMethod().getDeclaringClass();
+        Map<Method, Meters> byMethod = meters.get(type);
+        if (byMethod == null){
+            byMethod = meters.computeIfAbsent(type, key -> new ConcurrentHashMap<>());
+        }
+        Meters found = byMethod.get(invocation.getMethod());
+        if (found == null){
+            found = byMethod.computeIfAbsent(invocation.getMethod(), method -> new Meters(meterRegistry.getObject(),
+                    Tags.of("class", typeName(type), "method", method.getName())));
+        }
+        return found;
+    }
+
+    private static String typeName(Class<?> type){
+        for (Class<?> candidate : ClassUtils.getAllInterfacesForClassAsSet(type)){
+            if (Repository.class.isAssignableFrom(candidate) && !candidate.getName().startsWith("org.springframework.")){
+                return candidate.getSimpleName();
+            }
+        }
+        return ClassUtils.getUserClass(type).getSimpleName();
+    }
+
+    private static final class Meters {
+
+        private final MeterRegistry registry;
+
+        private final Tags tags;
+
+        private final Timer timer;
+
+        private final Counter rows;
+
+        Meters(MeterRegistry registry, Tags tags){
+            this.registry = registry;
+            this.tags = tags;
+            this.timer = registry.timer(TIMER, tags);
+            this.rows = registry.counter(ROWS, tags);
+        }
+
+        void returned(Object result){
+            long count;
+            if (result instanceof Collection<?> collection){
+                count = collection.size();
+            } else if (result instanceof Slice<?> slice){
+                count = slice.getNumberOfElements();
+            } else if (result instanceof Window<?> window){
+                count = window.size();
+            } else if (result instanceof Optional<?> optional){
+                count = optional.isPresent() ? 1 : 0;
+            } else {
+                return;
+            }
+            rows.increment(count);
+        }
+
+        void failed(Throwable e){
+            registry.counter(ERRORS, tags.and("exception", e.getClass().getSimpleName())).increment();
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package org.apirest.libraryapi.config;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordingStream;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.stream.Collectors;
+
+/**
+ * Reports virtual threads that stay pinned to their carrier (blocking inside {@code synchronized}
+ * or native code) for longer than {@code application.threads.pinned-threshold-millis}. Pinned
+ * threads hold a carrier for the whole blocking call, so frequent reports from the JPA/JDBC path
+ * mean virtual threads are not buying any concurrency there. Listens to the JFR
+ * {@code jdk.VirtualThreadPinned} event; only active in virtual-thread mode.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "spring.threads.virtual.enabled", havingValue = "true")
+public class VirtualThreadPinningMonitor {
+
+    static final String EVENT = "jdk.VirtualThreadPinned";
+
+    private static final int FRAMES = 8;
+
+    private final Duration threshold;
+
+    private final Counter pinned;
+
+    private final Timer pinnedTime;
+
+    private RecordingStream stream;
+
+    public VirtualThreadPinningMonitor(MeterRegistry meterRegistry,
+                                       @Value("${application.threads.pinned-threshold-millis:20}") long thresholdMillis){
+        this.threshold = Duration.ofMillis(thresholdMillis);
+        this.pinned = meterRegistry.counter("library.threads.pinned");
+        this.pinnedTime = meterRegistry.timer("library.threads.pinned.time");
+    }
+
+    @PostConstruct
+    public void start(){
+        stream = new RecordingStream();
+        stream.enable(EVENT).withThreshold(threshold).withStackTrace();
+        stream.onEvent(EVENT, this::report);
+        stream.startAsync();
+    }
+
+    @PreDestroy
+    public void stop(){
+        stream.close();
+    }
+
+    void report(RecordedEvent event){
+        pinned.increment();
+        pinnedTime.record(event.getDuration());
+        log.warn("Virtual thread pinned for {} ms at\n\t{}", event.getDuration().toMillis(), frames(event));
+    }
+
+    private static String frames(RecordedEvent event){
+        if (event.getStackTrace() == null){
+            return "<no stack trace>";
+        }
+        return event.getStackTrace().getFrames().stream()
+                .limit(FRAMES)
+                .map(VirtualThreadPinningMonitor::frame)
+                .collect(Collectors.joining("\n\t"));
+    }
+
+    private static String frame(RecordedFrame frame){
+        return frame.getMethod().getType().getName() + "." + frame.getMethod().getName() + ":" + frame.getLineNumber();
+    }
+}
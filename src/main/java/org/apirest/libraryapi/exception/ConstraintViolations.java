@@ -0,0 +1,26 @@
+package org.apirest.libraryapi.exception;
+
+import org.hibernate.exception.ConstraintViolationException;
+import org.springframework.dao.DataIntegrityViolationException;
+
+import java.util.Locale;
+
+public final class ConstraintViolations {
+
+    private ConstraintViolations(){
+    }
+
+    /**
+     * Whether {@code e} was raised by the constraint {@code name}. Databases report the name in their
+     * own case and some decorate it (H2 reports the backing index, {@code PUBLIC.UK_BOOK_ISBN_INDEX_2}),
+     * so it is looked up in the reported name ignoring case.
+     */
+    public static boolean isViolationOf(DataIntegrityViolationException e, String name){
+        for (Throwable cause = e; cause != null; cause = cause.getCause()){
+            if (cause instanceof ConstraintViolationException violation && violation.getConstraintName() != null){
+                return violation.getConstraintName().toLowerCase(Locale.ROOT).contains(name.toLowerCase(Locale.ROOT));
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,59 @@
+package org.apirest.libraryapi.model.entity;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import jakarta.persistence.Version;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Availability of a book, kept by the loan service in the same transaction as each checkout and
+ * return so it is read by key instead of being derived from the loans. Books never lent have no row.
+ */
+@NoArgsConstructor
+@AllArgsConstructor
+@Data
+@Builder
+@Entity
+@Table(name = "book_availability")
+public class BookAvailability {
+
+    public enum Status { AVAILABLE, LOANED }
+
+    @Id
+    @Column(name = "book_id")
+    private Long bookId;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 20)
+    private Status status;
+
+    @Column(name = "current_loan_id")
+    private Long currentLoanId;
+
+    @Column(name = "borrow_count", nullable = false)
+    private long borrowCount;
+
+    @Version
+    private Long version;
+
+    /**
+     * Version of the availability of books without a row. Stored rows start at 0, so the entity tag
+     * built from it changes on the first checkout.
+     */
+    public static final long NEVER_LENT_VERSION = -1L;
+
+    /**
+     * Availability of a book without a row, which was never lent.
+     */
+    public static BookAvailability available(Long bookId){
+        return BookAvailability.builder().bookId(bookId).status(Status.AVAILABLE).borrowCount(0)
+                .version(NEVER_LENT_VERSION).build();
+    }
+}
@@ -0,0 +1,49 @@
+package org.apirest.libraryapi.model.entity;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.SequenceGenerator;
+import jakarta.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+/**
+ * Marks a book as saved, changed or deleted, written in the same transaction as the change so every
+ * instance can bring its search index up to date by reading the marks after the last one it applied.
+ */
+@NoArgsConstructor
+@AllArgsConstructor
+@Data
+@Builder
+@Entity
+@Table(name = "book_change", indexes = @Index(name = "idx_book_change_changed_at", columnList = "changed_at"))
+public class BookChange {
+
+    /**
+     * Drawn from the sequence one value at a time, when the mark is inserted, so ids only skip the
+     * marks of transactions still running or rolled back. Pooled ids handed out per instance would
+     * leave ranges behind the readers' position for minutes.
+     */
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "book_change_seq")
+    @SequenceGenerator(name = "book_change_seq", sequenceName = "book_change_seq", allocationSize = 1)
+    private Long id;
+
+    @Column(name = "book_id", nullable = false)
+    private Long bookId;
+
+    @Column(name = "changed_at", nullable = false)
+    private Instant changedAt;
+
+    public static BookChange of(Long bookId){
+        return BookChange.builder().bookId(bookId).changedAt(Instant.now()).build();
+    }
+}
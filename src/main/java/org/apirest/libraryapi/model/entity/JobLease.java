@@ -0,0 +1,56 @@
+package org.apirest.libraryapi.model.entity;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+import java.time.LocalDate;
+
+/**
+ * Lease on a named piece of scheduled work, shared by every instance through the database.
+ * An instance holds the lease while {@code lockedUntil} is in the future and renews it as it makes
+ * progress; once it expires any other instance may take it over and resume after the recorded
+ * {@code (lastDueDate, lastId)} position.
+ */
+@NoArgsConstructor
+@AllArgsConstructor
+@Data
+@Builder
+@Entity
+@Table(name = "job_lease")
+public class JobLease {
+
+    @Id
+    @Column(length = 100)
+    private String name;
+
+    @Column(length = 100)
+    private String owner;
+
+    @Column(name = "locked_until", nullable = false)
+    private Instant lockedUntil;
+
+    @Column(name = "run_date")
+    private LocalDate runDate;
+
+    @Column(name = "range_from")
+    private Long rangeFrom;
+
+    @Column(name = "range_to")
+    private Long rangeTo;
+
+    @Column(name = "last_due_date")
+    private LocalDate lastDueDate;
+
+    @Column(name = "last_id")
+    private Long lastId;
+
+    @Column
+    private Boolean completed;
+}
@@ -2,12 +2,19 @@ package org.apirest.libraryapi.model.entity;
 
 import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
+import jakarta.persistence.FetchType;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
 import jakarta.persistence.JoinColumn;
 import jakarta.persistence.ManyToOne;
+import jakarta.persistence.PrePersist;
+import jakarta.persistence.PreUpdate;
+import jakarta.persistence.SequenceGenerator;
 import jakarta.persistence.Table;
+import jakarta.persistence.UniqueConstraint;
+import jakarta.persistence.Version;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
@@ -20,11 +27,22 @@ import java.time.LocalDate;
 @Data
 @Builder
 @Entity
-@Table
+@Table(uniqueConstraints = @UniqueConstraint(name = Loan.UK_ACTIVE_BOOK, columnNames = "active_book_id"),
+        indexes = {
+                @Index(name = "idx_loan_customer", columnList = "customer"),
+                @Index(name = "idx_loan_book_date", columnList = "id_book, loan_date"),
+                @Index(name = "idx_loan_open_due_date", columnList = "open_due_date, id"),
+                @Index(name = "idx_loan_sweep", columnList = "sweep_partition, open_due_date, id")
+        })
 public class Loan {
 
+    public static final String UK_ACTIVE_BOOK = "uk_loan_active_book";
+
+    public static final int SWEEP_PARTITIONS = 8;
+
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "loan_seq")
+    @SequenceGenerator(name = "loan_seq", sequenceName = "loan_seq", allocationSize = 50)
     private Long id;
 
     @Column
@@ -34,12 +52,49 @@ public class Loan {
     private String customerEmail;
 
     @JoinColumn(name = "id_book")
-    @ManyToOne
+    @ManyToOne(fetch = FetchType.LAZY)
     private Book book;
 
     @Column
     private LocalDate loanDate;
 
+    @Column(name = "due_date")
+    private LocalDate dueDate;
+
     @Column
     private Boolean returned;
+
+    @Version
+    private Long version;
+
+    /**
+     * Id of the book while this loan is open, {@code null} once it is returned. The unique
+     * constraint on it allows at most one open loan per book.
+     */
+    @Column(name = "active_book_id")
+    private Long activeBookId;
+
+    /**
+     * Due date while this loan is open, {@code null} once it is returned. Indexing it keeps only
+     * open loans in the index range read by the overdue query, like a partial index would.
+     */
+    @Column(name = "open_due_date")
+    private LocalDate openDueDate;
+
+    /**
+     * Partition of the overdue sweep, out of {@value #SWEEP_PARTITIONS}, taken from the book id: a book
+     * has a single open loan at a time, so open loans spread evenly. Leading {@code idx_loan_sweep}, it
+     * lets each partition read only its own overdue entries.
+     */
+    @Column(name = "sweep_partition")
+    private Integer sweepPartition;
+
+    @PrePersist
+    @PreUpdate
+    void syncOpenLoan(){
+        boolean open = !Boolean.TRUE.equals(returned);
+        activeBookId = book == null || !open ? null : book.getId();
+        openDueDate = open ? dueDate : null;
+        sweepPartition = book == null || book.getId() == null ? 0 : (int) Math.floorMod(book.getId(), (long) SWEEP_PARTITIONS);
+    }
 }
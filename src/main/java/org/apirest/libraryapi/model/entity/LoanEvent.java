@@ -0,0 +1,64 @@
+package org.apirest.libraryapi.model.entity;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.SequenceGenerator;
+import jakarta.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+/**
+ * Loan lifecycle event written to the outbox in the same transaction as the loan change, and
+ * removed once relayed to every consumer.
+ */
+@NoArgsConstructor
+@AllArgsConstructor
+@Data
+@Builder
+@Entity
+@Table(name = "loan_outbox")
+public class LoanEvent {
+
+    public enum Type { CREATED, RETURNED, REOPENED }
+
+    /**
+     * Drawn from the sequence one value at a time, when the event is inserted: events of the same
+     * book are written one after the other, since a book has a single open loan, so id order is
+     * their order. Pooled ids handed out per instance would break that across instances.
+     */
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "loan_outbox_seq")
+    @SequenceGenerator(name = "loan_outbox_seq", sequenceName = "loan_outbox_seq", allocationSize = 1)
+    private Long id;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 20)
+    private Type type;
+
+    @Column(name = "loan_id", nullable = false)
+    private Long loanId;
+
+    @Column(name = "book_id")
+    private Long bookId;
+
+    @Column(name = "occurred_at", nullable = false)
+    private Instant occurredAt;
+
+    public static LoanEvent of(Type type, Loan loan){
+        return LoanEvent.builder()
+                .type(type)
+                .loanId(loan.getId())
+                .bookId(loan.getBook() == null ? null : loan.getBook().getId())
+                .occurredAt(Instant.now())
+                .build();
+    }
+}
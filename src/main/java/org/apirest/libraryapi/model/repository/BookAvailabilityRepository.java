@@ -0,0 +1,55 @@
+package org.apirest.libraryapi.model.repository;
+
+import org.apirest.libraryapi.model.entity.BookAvailability;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
+
+/**
+ * Changes are keyed bulk updates that also bump the version, so the rows are never loaded to be
+ * changed. Checkouts of the same book are already serialized by {@code uk_loan_active_book}.
+ */
+@Repository
+public interface BookAvailabilityRepository extends JpaRepository<BookAvailability, Long> {
+
+    /**
+     * Marks the book as lent through {@code loanId}, counting a new borrow when {@code borrowed} is 1.
+     */
+    @Modifying(flushAutomatically = true)
+    @Query(" update BookAvailability a set a.status = org.apirest.libraryapi.model.entity.BookAvailability.Status.LOANED, " +
+            " a.currentLoanId = :loanId, a.borrowCount = a.borrowCount + :borrowed, a.version = a.version + 1 " +
+            " where a.bookId = :bookId ")
+    int lend(@Param("bookId") Long bookId, @Param("loanId") Long loanId, @Param("borrowed") long borrowed);
+
+    @Modifying(flushAutomatically = true)
+    @Query(" update BookAvailability a set a.status = org.apirest.libraryapi.model.entity.BookAvailability.Status.AVAILABLE, " +
+            " a.currentLoanId = null, a.version = a.version + 1 where a.currentLoanId in :loanIds ")
+    int release(@Param("loanIds") Collection<Long> loanIds);
+
+    /**
+     * Fills the table from the loans, for books lent before it existed.
+     */
+    @Modifying
+    @Query(" insert into BookAvailability ( bookId, status, currentLoanId, borrowCount, version ) " +
+            " select b.id, " +
+            " case when exists ( select 1 from Loan o where o.activeBookId = b.id ) " +
+            " then org.apirest.libraryapi.model.entity.BookAvailability.Status.LOANED " +
+            " else org.apirest.libraryapi.model.entity.BookAvailability.Status.AVAILABLE end, " +
+            " ( select o.id from Loan o where o.activeBookId = b.id ), " +
+            " ( select count( l.id ) from Loan l where l.book = b ), 0 " +
+            " from Book b where exists ( select 1 from Loan l where l.book = b ) ")
+    int rebuild();
+
+    /**
+     * Runs {@link #rebuild()} only while the table is still empty.
+     */
+    @Transactional
+    default int rebuildIfEmpty(){
+        return count() == 0 ? rebuild() : 0;
+    }
+}
@@ -0,0 +1,58 @@
+package org.apirest.libraryapi.model.repository;
+
+import org.apirest.libraryapi.model.entity.BookChange;
+import org.apirest.libraryapi.model.repository.BookRepository.BookText;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface BookChangeRepository extends JpaRepository<BookChange, Long> {
+
+    @Query(" select max(c.id) from BookChange c ")
+    Optional<Long> findLastId();
+
+    /**
+     * Marks after {@code afterId}, in id order, each with the current title and author of its book.
+     */
+    @Query(" select c.id as changeId, c.bookId as bookId, b.id as id, b.title as title, b.author as author " +
+            " from BookChange c left join Book b on b.id = c.bookId " +
+            " where c.id > :afterId order by c.id ")
+    List<ChangedBook> findChangesAfter(@Param("afterId") long afterId, Pageable pageable);
+
+    @Query(" select c.id as changeId, c.bookId as bookId, b.id as id, b.title as title, b.author as author " +
+            " from BookChange c left join Book b on b.id = c.bookId " +
+            " where c.id in :ids ")
+    List<ChangedBook> findChanges(@Param("ids") Collection<Long> ids);
+
+    /**
+     * Writes the marks of a batch of saved books with a single insert ... select.
+     */
+    @Modifying(flushAutomatically = true)
+    @Query(" insert into BookChange ( bookId, changedAt ) select b.id, :changedAt from Book b where b.id in :ids ")
+    int insertChanges(@Param("ids") Collection<Long> ids, @Param("changedAt") Instant changedAt);
+
+    @Transactional
+    @Modifying
+    @Query(" delete from BookChange c where c.changedAt < :before ")
+    int deleteChangedBefore(@Param("before") Instant before);
+
+    /**
+     * Mark joined with its book; {@link #getId()} is {@code null} once the book was deleted.
+     */
+    interface ChangedBook extends BookText {
+
+        Long getChangeId();
+
+        Long getBookId();
+    }
+}
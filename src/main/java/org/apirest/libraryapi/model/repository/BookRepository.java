@@ -1,15 +1,63 @@
 package org.apirest.libraryapi.model.repository;
 
+import jakarta.persistence.QueryHint;
 import org.apirest.libraryapi.model.entity.Book;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static org.hibernate.jpa.HibernateHints.HINT_FETCH_SIZE;
+import static org.hibernate.jpa.HibernateHints.HINT_READ_ONLY;
 
 @Repository
-public interface BookRepository extends JpaRepository<Book, Long> {
+public interface BookRepository extends JpaRepository<Book, Long>, JpaSpecificationExecutor<Book> {
 
     boolean existsByIsbn(String isbn);
 
     Optional<Book> findByIsbn(String isbn);
+
+    @Query(" select b.version from Book b where b.id = :id ")
+    Optional<Long> findVersionById(@Param("id") Long id);
+
+    @Query(" select b.isbn from Book b where b.isbn in :isbns ")
+    Set<String> findExistingIsbns(@Param("isbns") Collection<String> isbns);
+
+    @Query(" select b.isbn as isbn, b.id as id from Book b where b.isbn in :isbns ")
+    List<BookIsbn> findIdsByIsbns(@Param("isbns") Collection<String> isbns);
+
+    @Query(" select b.id as id, b.title as title, b.author as author from Book b where b.id > :afterId order by b.id ")
+    List<BookText> findTextsAfter(@Param("afterId") long afterId, Pageable pageable);
+
+    @QueryHints({@QueryHint(name = HINT_FETCH_SIZE, value = "1000"), @QueryHint(name = HINT_READ_ONLY, value = "true")})
+    @Query(" select b from Book b order by b.id ")
+    Stream<Book> streamAll();
+
+    /**
+     * The fields of a book kept in the search index.
+     */
+    interface BookText {
+
+        Long getId();
+
+        String getTitle();
+
+        String getAuthor();
+    }
+
+    interface BookIsbn {
+
+        String getIsbn();
+
+        Long getId();
+    }
 }
@@ -0,0 +1,73 @@
+package org.apirest.libraryapi.model.repository;
+
+import org.apirest.libraryapi.model.entity.JobLease;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.time.LocalDate;
+
+/**
+ * Every state change is a single conditional update, so concurrent instances race on the row
+ * and exactly one of them sees an updated count of 1.
+ */
+@Repository
+public interface JobLeaseRepository extends JpaRepository<JobLease, String> {
+
+    /**
+     * Creates the released lease row unless it already exists, possibly created by another instance.
+     */
+    default void createIfAbsent(String name, LocalDate runDate){
+        if (existsById(name)){
+            return;
+        }
+        try {
+            saveAndFlush(JobLease.builder().name(name).runDate(runDate).lockedUntil(Instant.EPOCH).completed(false).build());
+        } catch (DataIntegrityViolationException e){
+            // created by another instance in the meantime
+        }
+    }
+
+    /**
+     * Starts the {@code runDate} run of the lease with the given range, unless it was already started.
+     */
+    @Transactional
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query(" update JobLease j set j.runDate = :runDate, j.rangeFrom = :rangeFrom, j.rangeTo = :rangeTo, " +
+            " j.lastDueDate = null, j.lastId = null, j.completed = false, j.owner = null, j.lockedUntil = :released " +
+            " where j.name = :name and ( j.runDate is null or j.runDate < :runDate ) ")
+    int startRun(@Param("name") String name, @Param("runDate") LocalDate runDate, @Param("rangeFrom") Long rangeFrom,
+                 @Param("rangeTo") Long rangeTo, @Param("released") Instant released);
+
+    /**
+     * Takes the lease when it is free or expired, or renews it when {@code owner} already holds it.
+     */
+    @Transactional
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query(" update JobLease j set j.owner = :owner, j.lockedUntil = :lockedUntil " +
+            " where j.name = :name and j.runDate = :runDate and j.completed = false " +
+            " and ( j.lockedUntil <= :now or j.owner = :owner ) ")
+    int acquire(@Param("name") String name, @Param("runDate") LocalDate runDate, @Param("owner") String owner,
+                @Param("now") Instant now, @Param("lockedUntil") Instant lockedUntil);
+
+    /**
+     * Records progress and renews the lease, updating nothing when {@code owner} lost it.
+     */
+    @Transactional
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query(" update JobLease j set j.lastDueDate = :lastDueDate, j.lastId = :lastId, j.lockedUntil = :lockedUntil " +
+            " where j.name = :name and j.owner = :owner and j.completed = false ")
+    int checkpoint(@Param("name") String name, @Param("owner") String owner, @Param("lastDueDate") LocalDate lastDueDate,
+                   @Param("lastId") Long lastId, @Param("lockedUntil") Instant lockedUntil);
+
+    @Transactional
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query(" update JobLease j set j.completed = true, j.lockedUntil = :released " +
+            " where j.name = :name and j.owner = :owner and j.completed = false ")
+    int complete(@Param("name") String name, @Param("owner") String owner, @Param("released") Instant released);
+}
@@ -0,0 +1,29 @@
+package org.apirest.libraryapi.model.repository;
+
+import org.apirest.libraryapi.model.entity.LoanEvent;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface LoanEventRepository extends JpaRepository<LoanEvent, Long> {
+
+    @Query(" select e from LoanEvent e order by e.id ")
+    List<LoanEvent> findBatch(Pageable pageable);
+
+    /**
+     * Writes the returned events of a bulk return with a single insert ... select.
+     */
+    @Modifying(flushAutomatically = true)
+    @Query(" insert into LoanEvent ( type, loanId, bookId, occurredAt ) " +
+            " select org.apirest.libraryapi.model.entity.LoanEvent.Type.RETURNED, l.id, l.book.id, :occurredAt " +
+            " from Loan l where l.id in :ids ")
+    int insertReturned(@Param("ids") Collection<Long> ids, @Param("occurredAt") Instant occurredAt);
+}
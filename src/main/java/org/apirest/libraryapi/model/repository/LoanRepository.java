@@ -1,29 +1,164 @@
 package org.apirest.libraryapi.model.repository;
 
+import jakarta.persistence.LockModeType;
+import jakarta.persistence.QueryHint;
+import jakarta.persistence.criteria.Join;
+import jakarta.persistence.criteria.Predicate;
+import jakarta.persistence.criteria.Root;
+import jakarta.persistence.criteria.Subquery;
 import org.apirest.libraryapi.model.entity.Book;
 import org.apirest.libraryapi.model.entity.Loan;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.hibernate.query.criteria.HibernateCriteriaBuilder;
+import org.springframework.data.jpa.domain.Specification;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.util.StringUtils;
 
 import java.time.LocalDate;
+import java.util.Collection;
 import java.util.List;
+import java.util.stream.Stream;
+
+import static org.hibernate.jpa.HibernateHints.HINT_FETCH_SIZE;
+import static org.hibernate.jpa.HibernateHints.HINT_FLUSH_MODE;
+import static org.hibernate.jpa.HibernateHints.HINT_READ_ONLY;
 
 @Repository
-public interface LoanRepository extends JpaRepository<Loan, Long> {
+public interface LoanRepository extends JpaRepository<Loan, Long>, JpaSpecificationExecutor<Loan> {
 
     @Query(value = " select case when ( count( l.id ) > 0 ) then true else false end " +
-            " from Loan l where l.book = :book and ( l.returned is null or l.returned is false ) ")
+            " from Loan l where l.activeBookId = :#{#book.id} ")
     boolean existsBookAlreadyLoaned(@Param("book") Book book);
 
-    @Query(value = " select l from Loan as l join l.book as b where b.isbn = :isbn or l.customer =:customer ")
-    Page<Loan> findByBookIsbnOrCustomer(@Param("isbn") String isbn, @Param("customer") String customer, Pageable pageable);
+    @Query(value = " select l from Loan as l join fetch l.book where l.book = :book ",
+            countQuery = " select count( l.id ) from Loan as l where l.book = :book ")
+    Page<Loan> findByBook(@Param("book") Book book, Pageable pageable);
+
+    @Query(" select count( l.id ) as count, coalesce( sum( l.version ), 0 ) as versions, coalesce( max( l.id ), 0 ) as lastId " +
+            " from Loan l where l.book = :book ")
+    LoansVersion findLoansVersion(@Param("book") Book book);
+
+    /**
+     * First chunk of the open loans of sweep {@code partition} due on or before {@code date}, in
+     * {@code (openDueDate, id)} order. The partition leads the {@code idx_loan_sweep} index, so only the
+     * partition's own overdue entries are read, in place and without sorting.
+     */
+    @Query(" select l from Loan l where l.sweepPartition = :partition and l.openDueDate <= :date " +
+            " order by l.openDueDate, l.id ")
+    List<Loan> findOverdueLoansInPartition(@Param("date") LocalDate date, @Param("partition") int partition,
+                                           Pageable pageable);
+
+    /**
+     * Next chunk after the loan {@code (afterDueDate, afterId)} of {@link #findOverdueLoansInPartition}.
+     */
+    @Query(" select l from Loan l where l.sweepPartition = :partition and l.openDueDate <= :date " +
+            " and ( l.openDueDate > :afterDueDate or ( l.openDueDate = :afterDueDate and l.id > :afterId ) ) " +
+            " order by l.openDueDate, l.id ")
+    List<Loan> findOverdueLoansInPartitionAfter(@Param("date") LocalDate date, @Param("partition") int partition,
+                                                @Param("afterDueDate") LocalDate afterDueDate,
+                                                @Param("afterId") Long afterId, Pageable pageable);
+
+    /**
+     * Open loans among {@code ids} that are due on or before {@code date}.
+     */
+    @Query(" select l from Loan l where l.id in :ids and l.openDueDate <= :date order by l.id ")
+    List<Loan> findOverdueLoansByIds(@Param("ids") Collection<Long> ids, @Param("date") LocalDate date);
+
+    /**
+     * Id and due date of the open loans due on or after {@code from}, read from the
+     * {@code idx_loan_open_due_date} index alone.
+     */
+    @QueryHints({@QueryHint(name = HINT_FETCH_SIZE, value = "1000"), @QueryHint(name = HINT_READ_ONLY, value = "true")})
+    @Query(" select l.id as id, l.openDueDate as dueDate from Loan l where l.openDueDate >= :from ")
+    Stream<OpenLoanDue> streamOpenLoansDueFrom(@Param("from") LocalDate from);
+
+    /**
+     * Returned flag as stored, without flushing first, so a pending change to the managed loan is not read back.
+     */
+    @QueryHints(@QueryHint(name = HINT_FLUSH_MODE, value = "COMMIT"))
+    @Query(" select l.returned from Loan l where l.id = :id ")
+    Boolean findReturnedById(@Param("id") Long id);
+
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query(" select l.id from Loan l where l.id in :ids and ( l.returned is null or l.returned is false ) ")
+    List<Long> lockOpenLoanIds(@Param("ids") Collection<Long> ids);
+
+    @Query(" select l.id from Loan l where l.id in :ids ")
+    List<Long> findExistingIds(@Param("ids") Collection<Long> ids);
+
+    /**
+     * Bulk updates skip the entity callbacks and versioning, so the open-loan columns are cleared
+     * and the version bumped here as well.
+     */
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query(" update Loan l set l.returned = true, l.activeBookId = null, l.openDueDate = null, l.version = l.version + 1 " +
+            " where l.id in :ids ")
+    int markReturned(@Param("ids") Collection<Long> ids);
+
+    @QueryHints({@QueryHint(name = HINT_FETCH_SIZE, value = "1000"), @QueryHint(name = HINT_READ_ONLY, value = "true")})
+    @Query(" select l from Loan l left join fetch l.book order by l.id ")
+    Stream<Loan> streamAll();
+
+    /**
+     * Summary of a book's loans that changes whenever one of them is added, updated or removed.
+     */
+    interface LoansVersion {
+
+        long getCount();
+
+        long getVersions();
+
+        long getLastId();
+    }
+
+    interface OpenLoanDue {
+
+        Long getId();
 
-    Page<Loan> findByBook(Book book, Pageable pageable);
+        LocalDate getDueDate();
+    }
 
-    @Query(" select l from Loan l where l.loanDate <= :closeToExpiration and ( l.returned is null or l.returned is false ) ")
-    List<Loan> findByLateLoans(@Param("closeToExpiration") LocalDate closeToExpiration);
+    /**
+     * Loans matching the book isbn or the customer, applying only the criteria that are present.
+     * A single criterion is a plain indexed lookup; both are combined as a union of the two loan id
+     * sets instead of an OR across the book join, so each branch keeps its own index
+     * ({@code uk_book_isbn} + {@code idx_loan_book_date}, or {@code idx_loan_customer}).
+     * The book is fetched along with the loans except in count queries.
+     */
+    static Specification<Loan> filteredBy(String isbn, String customer) {
+        boolean byIsbn = StringUtils.hasText(isbn);
+        boolean byCustomer = StringUtils.hasText(customer);
+        return (root, query, builder) -> {
+            boolean count = Long.class.equals(query.getResultType()) || long.class.equals(query.getResultType());
+            // a fetch is also a join, reused below instead of joining the book twice
+            Join<Loan, Book> book = count ? null : (Join<Loan, Book>) root.<Loan, Book>fetch("book");
+            if (byIsbn && byCustomer){
+                Subquery<Long> ofBook = query.subquery(Long.class);
+                Root<Loan> loanOfBook = ofBook.from(Loan.class);
+                ofBook.select(loanOfBook.get("id"))
+                        .where(builder.equal(loanOfBook.join("book").get("isbn"), isbn));
+                Subquery<Long> ofCustomer = query.subquery(Long.class);
+                Root<Loan> loanOfCustomer = ofCustomer.from(Loan.class);
+                ofCustomer.select(loanOfCustomer.get("id"))
+                        .where(builder.equal(loanOfCustomer.get("customer"), customer));
+                return root.get("id").in(((HibernateCriteriaBuilder) builder).union(ofBook, ofCustomer));
+            }
+            Predicate predicate = builder.conjunction();
+            if (byIsbn){
+                predicate = builder.equal((book == null ? root.join("book") : book).get("isbn"), isbn);
+            }
+            if (byCustomer){
+                predicate = builder.equal(root.get("customer"), customer);
+            }
+            return predicate;
+        };
+    }
 }
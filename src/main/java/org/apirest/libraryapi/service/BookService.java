@@ -1,25 +1,51 @@
 package org.apirest.libraryapi.service;
 
+import org.apirest.libraryapi.api.dto.BookBatchErrorDto;
 import org.apirest.libraryapi.model.entity.Book;
+import org.springframework.data.domain.KeysetScrollPosition;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Window;
 import org.springframework.stereotype.Service;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.function.Consumer;
 
 @Service
 public interface BookService {
 
     Book save(Book book);
 
+    List<BookBatchErrorDto> importBooks(List<Book> books);
+
     Optional<Book> getBookById(Long id);
 
+    /**
+     * The book at {@code version}, taken from the cache only when the cached copy is at that version.
+     */
+    Optional<Book> getBookById(Long id, Long version);
+
+    Optional<Long> getBookVersion(Long id);
+
     void delete(Book book);
 
     Book update(Book book);
 
+    Optional<Book> update(Long id, Long expectedVersion, Consumer<Book> changes);
+
     Page<Book> findByFilter(Book filter, Pageable page);
 
+    Slice<Book> findSliceByFilter(Book filter, Pageable page);
+
+    Window<Book> findByFilter(Book filter, KeysetScrollPosition position, int size);
+
     Optional<Book> getBookByIsbn(String isbn);
 
+    Map<String, Long> getBookIdsByIsbn(Collection<String> isbns);
+
+    void exportBooks(Consumer<Book> consumer);
 }
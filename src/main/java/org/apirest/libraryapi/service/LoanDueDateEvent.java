@@ -0,0 +1,11 @@
+package org.apirest.libraryapi.service;
+
+import java.time.LocalDate;
+import java.util.Collection;
+
+/**
+ * Published by the loan service whenever loans are created, updated or returned.
+ * {@code openDueDate} is the due date the loans are open until, or {@code null} when they were returned.
+ */
+public record LoanDueDateEvent(Collection<Long> loanIds, LocalDate openDueDate) {
+}
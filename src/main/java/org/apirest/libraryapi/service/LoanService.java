@@ -1,14 +1,25 @@
 package org.apirest.libraryapi.service;
 
 import org.apirest.libraryapi.api.dto.LoanFilterDto;
+import org.apirest.libraryapi.api.dto.LoanReturnResultDto;
 import org.apirest.libraryapi.model.entity.Book;
+import org.apirest.libraryapi.model.entity.BookAvailability;
 import org.apirest.libraryapi.model.entity.Loan;
+import org.apirest.libraryapi.model.repository.LoanRepository.LoansVersion;
+import org.springframework.data.domain.KeysetScrollPosition;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Window;
 import org.springframework.stereotype.Service;
 
+import java.time.LocalDate;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
 @Service
 public interface LoanService {
@@ -19,9 +30,30 @@ public interface LoanService {
 
     Loan update(Loan loan);
 
+    Optional<Loan> returnLoan(Long id, boolean returned);
+
+    LoanReturnResultDto returnLoans(Collection<Long> ids);
+
     Page<Loan> findByFilter(LoanFilterDto loan, Pageable page);
 
+    Slice<Loan> findSliceByFilter(LoanFilterDto loan, Pageable page);
+
+    Window<Loan> findByFilter(LoanFilterDto loan, KeysetScrollPosition position, int size);
+
     Page<Loan> getLoansByBook(Book book, Pageable pageable);
 
-    List<Loan> getAllLateLoans();
+    LoansVersion getLoansVersion(Book book);
+
+    BookAvailability getAvailability(Long bookId);
+
+    Map<Long, BookAvailability> getAvailability(Collection<Long> bookIds);
+
+    List<Loan> findOverdueLoansInPartition(LocalDate date, int partition, LocalDate afterDueDate, Long afterId,
+                                           int limit);
+
+    void processOverdueLoans(Collection<Long> ids, int chunkSize, Consumer<List<Loan>> consumer);
+
+    void forEachOpenLoanDue(LocalDate from, BiConsumer<Long, LocalDate> consumer);
+
+    void exportLoans(Consumer<Loan> consumer);
 }
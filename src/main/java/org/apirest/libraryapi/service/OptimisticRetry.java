@@ -0,0 +1,74 @@
+package org.apirest.libraryapi.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+
+/**
+ * Runs a read-modify-write unit in a transaction and runs it again, from a fresh read, when a
+ * concurrent transaction updated the same versioned row first. Only meant for updates that commute
+ * with the concurrent ones (returning a loan), not for edits that would overwrite them; after
+ * {@code application.optimistic.max-attempts} the conflict is rethrown and answered with 409.
+ * Must not be called inside an existing transaction, otherwise every attempt joins it.
+ */
+@Slf4j
+@Component
+public class OptimisticRetry {
+
+    static final String OPERATIONS = "library.optimistic.operations";
+
+    static final String CONFLICTS = "library.optimistic.conflicts";
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final MeterRegistry meterRegistry;
+
+    private final int maxAttempts;
+
+    private final long backoffMillis;
+
+    public OptimisticRetry(PlatformTransactionManager transactionManager, MeterRegistry meterRegistry,
+                           @Value("${application.optimistic.max-attempts:3}") int maxAttempts,
+                           @Value("${application.optimistic.backoff-millis:20}") long backoffMillis){
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.meterRegistry = meterRegistry;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.backoffMillis = backoffMillis;
+    }
+
+    public <T> T execute(String operation, Supplier<T> work){
+        meterRegistry.counter(OPERATIONS, "operation", operation).increment();
+        for (int attempt = 1; ; attempt++){
+            try {
+                return transactionTemplate.execute(status -> work.get());
+            } catch (OptimisticLockingFailureException e){
+                if (attempt >= maxAttempts){
+                    meterRegistry.counter(CONFLICTS, "operation", operation, "outcome", "exhausted").increment();
+                    log.warn("Giving up {} after {} conflicting attempts", operation, attempt);
+                    throw e;
+                }
+                meterRegistry.counter(CONFLICTS, "operation", operation, "outcome", "retried").increment();
+                pause(attempt);
+            }
+        }
+    }
+
+    private void pause(int attempt){
+        if (backoffMillis <= 0){
+            return;
+        }
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(backoffMillis * attempt + 1));
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while retrying a conflicting update", e);
+        }
+    }
+}
@@ -2,11 +2,13 @@ package org.apirest.libraryapi.service;
 
 import lombok.RequiredArgsConstructor;
 import org.apirest.libraryapi.model.entity.Loan;
+import org.apirest.libraryapi.service.overdue.LateLoanSweep;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
 import java.util.List;
+import java.util.Objects;
 
 @RequiredArgsConstructor
 @Service
@@ -14,18 +16,39 @@ public class ScheduleService {
 
     private static final String CRON_LATE_LOANS = "0 0 0 1/1 * ?";
 
-    private final LoanService loanService;
+    private final LateLoanSweep lateLoanSweep;
 
     private final EmailService emailService;
 
     @Value("${application.mail.lateloans.message}")
     private String message;
 
-    @Scheduled(cron = CRON_LATE_LOANS)
+    @Value("${application.mail.lateloans.chunk-size:500}")
+    private int chunkSize;
+
+    /**
+     * Nightly sweep of every overdue loan, scheduled with {@code application.overdue.mode=scan}, the
+     * default. The sweep is partitioned and leased through the database, so each loan is notified
+     * once however many instances run it; the {@code tracker} mode notifies each loan as it crosses
+     * its due date but is only meant for a single instance.
+     */
+    @Scheduled(cron = "#{'${application.overdue.mode:scan}' == 'scan' ? '" + CRON_LATE_LOANS + "' : '-'}")
     public void sendMailToLateLoans(){
-        List<Loan> listLateLoans = loanService.getAllLateLoans();
-        List<String> mailsList = listLateLoans.stream().map(Loan::getCustomer).toList();
-        emailService.sendMails(message, mailsList);
+        lateLoanSweep.sweep(chunkSize, this::notifyLateLoans);
+    }
+
+    public void notifyLateLoans(List<Loan> lateLoans){
+        List<String> mailsList = lateLoans.stream()
+                .map(Loan::getCustomerEmail)
+                .filter(Objects::nonNull)
+                .toList();
+        if (!mailsList.isEmpty()){
+            emailService.sendMails(message, mailsList);
+        }
+    }
+
+    public int getChunkSize(){
+        return chunkSize;
     }
 
 }
@@ -1,67 +1,460 @@
 package org.apirest.libraryapi.service.impl;
 
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.criteria.Predicate;
+import org.apirest.libraryapi.api.dto.BookBatchErrorDto;
 import org.apirest.libraryapi.exception.BusinessException;
+import org.apirest.libraryapi.exception.ConstraintViolations;
 import org.apirest.libraryapi.model.entity.Book;
+import org.apirest.libraryapi.model.entity.BookChange;
+import org.apirest.libraryapi.model.repository.BookChangeRepository;
 import org.apirest.libraryapi.model.repository.BookRepository;
 import org.apirest.libraryapi.service.BookService;
+import org.apirest.libraryapi.service.search.BookSearchIndex;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.data.domain.Example;
 import org.springframework.data.domain.ExampleMatcher;
+import org.springframework.data.domain.KeysetScrollPosition;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
+import org.springframework.data.domain.ScrollPosition;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Window;
+import org.springframework.data.jpa.convert.QueryByExamplePredicateBuilder;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 @Service
 public class BookServiceImpl implements BookService {
 
+    public static final String BOOKS_CACHE = "books";
+
+    public static final String BOOKS_BY_ISBN_CACHE = "booksByIsbn";
+
+    private static final int MAX_IN_LIST = 1000;
+
+    private static final int IMPORT_CHUNK_SIZE = 500;
+
+    private static final String DUPLICATED_ISBN = "Livro com 'isbn' já cadastrado";
+
     private final BookRepository repository;
 
-    public BookServiceImpl(BookRepository repository){
+    private final BookChangeRepository changeRepository;
+
+    private final BookSearchIndex searchIndex;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final EntityManager entityManager;
+
+    private final Cache books;
+
+    private final Cache booksByIsbn;
+
+    public BookServiceImpl(BookRepository repository, BookChangeRepository changeRepository, BookSearchIndex searchIndex,
+                           PlatformTransactionManager transactionManager, CacheManager cacheManager,
+                           EntityManager entityManager){
         this.repository = repository;
+        this.changeRepository = changeRepository;
+        this.searchIndex = searchIndex;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.books = cacheManager.getCache(BOOKS_CACHE);
+        this.booksByIsbn = cacheManager.getCache(BOOKS_BY_ISBN_CACHE);
+        this.entityManager = entityManager;
     }
 
+    /**
+     * Inserts the book along with its {@link BookChange} mark, in one transaction.
+     */
     @Override
     public Book save(Book book) {
-        if (repository.existsByIsbn(book.getIsbn())){
-            throw new BusinessException("Livro com 'isbn' já cadastrado");
+        Book saved;
+        try {
+            saved = transactionTemplate.execute(status -> {
+                Book inserted = repository.saveAndFlush(book);
+                changeRepository.save(BookChange.of(inserted.getId()));
+                return inserted;
+            });
+        } catch (DataIntegrityViolationException e){
+            if (ConstraintViolations.isViolationOf(e, Book.UK_ISBN)){
+                throw new BusinessException(DUPLICATED_ISBN);
+            }
+            throw e;
         }
-        return repository.save(book);
+        searchIndex.index(saved);
+        return saved;
     }
 
+    /**
+     * Imports the given books, skipping duplicated ISBNs instead of failing the whole batch.
+     * Duplicates are resolved with one IN query per chunk and each chunk is inserted in its
+     * own transaction, so the JDBC batching configured for Hibernate applies; the chunk's
+     * {@link BookChange} marks are written by a single insert ... select.
+     *
+     * @return the rejected books, indexed by their position in {@code books}
+     */
+    @Override
+    public List<BookBatchErrorDto> importBooks(List<Book> books) {
+        List<BookBatchErrorDto> errors = new ArrayList<>();
+        Map<String, Integer> positions = new HashMap<>();
+        for (int i = 0; i < books.size(); i++){
+            String isbn = books.get(i).getIsbn();
+            if (positions.putIfAbsent(isbn, i) != null){
+                errors.add(error(i, isbn, "'isbn' repetido no lote"));
+            }
+        }
+
+        List<String> isbns = new ArrayList<>(positions.keySet());
+        Set<String> existing = new HashSet<>();
+        for (int from = 0; from < isbns.size(); from += MAX_IN_LIST){
+            existing.addAll(repository.findExistingIsbns(isbns.subList(from, Math.min(from + MAX_IN_LIST, isbns.size()))));
+        }
+
+        List<Book> pending = new ArrayList<>(positions.size());
+        positions.values().stream().sorted().forEach(i -> {
+            Book book = books.get(i);
+            if (existing.contains(book.getIsbn())){
+                errors.add(error(i, book.getIsbn(), DUPLICATED_ISBN));
+            } else {
+                pending.add(book);
+            }
+        });
+
+        for (int from = 0; from < pending.size(); from += IMPORT_CHUNK_SIZE){
+            List<Book> chunk = pending.subList(from, Math.min(from + IMPORT_CHUNK_SIZE, pending.size()));
+            try {
+                transactionTemplate.executeWithoutResult(status -> {
+                    repository.saveAll(chunk);
+                    changeRepository.insertChanges(chunk.stream().map(Book::getId).toList(), Instant.now());
+                });
+                chunk.forEach(searchIndex::index);
+            } catch (DataIntegrityViolationException e){
+                // another request inserted one of these ISBNs in the meantime: retry one by one
+                for (Book book : chunk){
+                    book.setId(null);
+                    book.setVersion(null);
+                    try {
+                        save(book);
+                    } catch (BusinessException ex){
+                        errors.add(error(positions.get(book.getIsbn()), book.getIsbn(), ex.getMessage()));
+                    }
+                }
+            }
+            entityManager.clear();
+        }
+        errors.sort(Comparator.comparingInt(BookBatchErrorDto::getIndex));
+        return errors;
+    }
+
+    /**
+     * Served from {@value #BOOKS_CACHE}, which holds snapshots of the books: every call gets its own
+     * detached copy, so changes made to it never leak into the cache.
+     */
     @Override
     public Optional<Book> getBookById(Long id) {
-        return this.repository.findById(id);
+        CachedBook cached = books.get(id, CachedBook.class);
+        if (cached != null){
+            return Optional.of(cached.toBook());
+        }
+        Optional<Book> book = repository.findById(id);
+        book.ifPresent(found -> books.put(id, CachedBook.of(found)));
+        return book;
+    }
+
+    /**
+     * Drops the cached copy when it is at another version, as left behind by a change made through
+     * another instance, and reads the book again.
+     */
+    @Override
+    public Optional<Book> getBookById(Long id, Long version) {
+        CachedBook cached = books.get(id, CachedBook.class);
+        if (cached != null && cached.version().equals(version)){
+            return Optional.of(cached.toBook());
+        }
+        books.evict(id);
+        return getBookById(id);
+    }
+
+    @Override
+    public Optional<Long> getBookVersion(Long id) {
+        return repository.findVersionById(id);
     }
 
+    /**
+     * Deletes the current row of the book, whatever version the given copy holds.
+     */
     @Override
+    @Transactional
     public void delete(Book book) {
         if (book.getId() == null){
             throw new IllegalArgumentException("The Book can't be null");
         }
-        this.repository.delete(book);
+        Optional<Book> current = repository.findById(book.getId());
+        current.ifPresent(found -> {
+            repository.delete(found);
+            changeRepository.save(BookChange.of(found.getId()));
+        });
+        afterCommit(() -> {
+            evict(book.getId(), book.getIsbn());
+            current.ifPresent(found -> evict(found.getId(), found.getIsbn()));
+            searchIndex.remove(book.getId());
+        });
     }
 
     @Override
+    @Transactional
     public Book update(Book book) {
         if (book.getId() == null){
             throw new IllegalArgumentException("The Book can't be null");
         }
-        return repository.save(book);
+        Book updated = repository.save(book);
+        changeRepository.save(BookChange.of(updated.getId()));
+        afterCommit(() -> {
+            evict(book.getId(), book.getIsbn());
+            evict(updated.getId(), updated.getIsbn());
+            searchIndex.index(updated);
+        });
+        return updated;
+    }
+
+    /**
+     * Applies {@code changes} to the current state of the book when it is still at {@code expectedVersion},
+     * or at any version when it is {@code null}. The changes replace fields edited by other requests, so a
+     * stale version or a concurrent update winning the version check fails with an optimistic locking
+     * exception instead of being retried.
+     */
+    @Override
+    @Transactional
+    public Optional<Book> update(Long id, Long expectedVersion, Consumer<Book> changes) {
+        return repository.findById(id).map(book -> {
+            if (expectedVersion != null && !expectedVersion.equals(book.getVersion())){
+                throw new ObjectOptimisticLockingFailureException(Book.class, id);
+            }
+            String isbn = book.getIsbn();
+            changes.accept(book);
+            Book saved = repository.saveAndFlush(book);
+            changeRepository.save(BookChange.of(id));
+            afterCommit(() -> {
+                evict(id, isbn);
+                evict(id, saved.getIsbn());
+                searchIndex.index(saved);
+            });
+            return saved;
+        });
     }
 
     @Override
     public Page<Book> findByFilter(Book filter, Pageable page) {
-        Example<Book> example = Example.of(filter, ExampleMatcher.matching()
-                .withIgnoreCase()
-                .withIgnoreNullValues()
-                .withStringMatcher(ExampleMatcher.StringMatcher.CONTAINING));
-        return repository.findAll(example, page);
+        long[] ids = searchIndex.search(filter.getTitle(), filter.getAuthor());
+        if (ids == null || page.isUnpaged()){
+            return repository.findAll(example(filter), page);
+        }
+        if (ids.length == 0){
+            return Page.empty(page);
+        }
+        if (onlyTextCriteria(filter) && page.getSort().isUnsorted()){
+            int from = (int) Math.min(page.getOffset(), ids.length);
+            int to = Math.min(from + page.getPageSize(), ids.length);
+            return new PageImpl<>(findAllInOrder(ids, from, to), page, ids.length);
+        }
+        if (ids.length > MAX_IN_LIST){
+            return repository.findAll(example(filter), page);
+        }
+        return repository.findAll(candidates(ids, filter), page);
+    }
+
+    /**
+     * Same lookup as {@link #findByFilter(Book, Pageable)} without the count query: database reads
+     * fetch one extra row to tell whether a next slice exists, index-only reads already know it.
+     */
+    @Override
+    public Slice<Book> findSliceByFilter(Book filter, Pageable page) {
+        long[] ids = searchIndex.search(filter.getTitle(), filter.getAuthor());
+        if (ids == null || page.isUnpaged()){
+            return Slices.find(repository, matching(example(filter)), page);
+        }
+        if (ids.length == 0){
+            return new SliceImpl<>(List.of(), page, false);
+        }
+        if (onlyTextCriteria(filter) && page.getSort().isUnsorted()){
+            int from = (int) Math.min(page.getOffset(), ids.length);
+            int to = Math.min(from + page.getPageSize(), ids.length);
+            return new SliceImpl<>(findAllInOrder(ids, from, to), page, to < ids.length);
+        }
+        if (ids.length > MAX_IN_LIST){
+            return Slices.find(repository, matching(example(filter)), page);
+        }
+        return Slices.find(repository, candidates(ids, filter), page);
+    }
+
+    @Override
+    public Window<Book> findByFilter(Book filter, KeysetScrollPosition position, int size) {
+        long[] ids = searchIndex.search(filter.getTitle(), filter.getAuthor());
+        if (ids != null && onlyTextCriteria(filter)){
+            Object after = position.getKeys().get("id");
+            int from = after == null ? 0 : firstAfter(ids, ((Number) after).longValue());
+            int to = Math.min(from + size, ids.length);
+            List<Book> content = findAllInOrder(ids, from, to);
+            return Window.from(content, i -> ScrollPosition.forward(Map.of("id", content.get(i).getId())),
+                    to < ids.length);
+        }
+        return repository.findBy(example(filter), query -> query
+                .sortBy(Sort.by("id"))
+                .limit(size)
+                .scroll(position));
     }
 
     @Override
     public Optional<Book> getBookByIsbn(String isbn) {
-        return repository.findByIsbn(isbn);
+        CachedBook cached = booksByIsbn.get(isbn, CachedBook.class);
+        if (cached != null){
+            return Optional.of(cached.toBook());
+        }
+        Optional<Book> book = repository.findByIsbn(isbn);
+        book.ifPresent(found -> booksByIsbn.put(isbn, CachedBook.of(found)));
+        return book;
+    }
+
+    /**
+     * Ids of the books with the given isbns, resolved with one IN query per {@value #MAX_IN_LIST} isbns.
+     * Isbns of no book are left out.
+     */
+    @Override
+    public Map<String, Long> getBookIdsByIsbn(Collection<String> isbns) {
+        List<String> distinct = isbns.stream().distinct().toList();
+        Map<String, Long> ids = new HashMap<>();
+        for (int from = 0; from < distinct.size(); from += MAX_IN_LIST){
+            repository.findIdsByIsbns(distinct.subList(from, Math.min(from + MAX_IN_LIST, distinct.size())))
+                    .forEach(book -> ids.put(book.getIsbn(), book.getId()));
+        }
+        return ids;
+    }
+
+    /**
+     * Walks every book over a single database cursor. Each book is detached once consumed so the
+     * persistence context stays empty however many rows are exported.
+     */
+    @Override
+    @Transactional(readOnly = true)
+    public void exportBooks(Consumer<Book> consumer) {
+        try (Stream<Book> books = repository.streamAll()) {
+            books.forEach(book -> {
+                consumer.accept(book);
+                entityManager.detach(book);
+            });
+        }
+    }
+
+    private List<Book> findAllInOrder(long[] ids, int from, int to) {
+        if (from >= to){
+            return List.of();
+        }
+        List<Long> pageIds = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++){
+            pageIds.add(ids[i]);
+        }
+        List<Book> books = new ArrayList<>(repository.findAllById(pageIds));
+        books.sort(Comparator.comparing(Book::getId));
+        return books;
+    }
+
+    /**
+     * Runs {@code action} once the current transaction commits, so a lookup running meanwhile cannot
+     * put the row it read before the commit back into the cache; right away when there is none.
+     */
+    private static void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()){
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+
+    private void evict(Long id, String isbn) {
+        books.evict(id);
+        if (isbn != null){
+            booksByIsbn.evict(isbn);
+        }
+    }
+
+    private static BookBatchErrorDto error(int index, String isbn, String message) {
+        return new BookBatchErrorDto(index, isbn, List.of(message));
+    }
+
+    private static int firstAfter(long[] ids, long after) {
+        int position = Arrays.binarySearch(ids, after);
+        return position >= 0 ? position + 1 : -position - 1;
+    }
+
+    private static boolean onlyTextCriteria(Book filter) {
+        return filter.getId() == null && filter.getIsbn() == null && filter.getLoanDays() == null;
+    }
+
+    private static Specification<Book> candidates(long[] ids, Book filter) {
+        Example<Book> remaining = example(Book.builder().id(filter.getId()).isbn(filter.getIsbn())
+                .loanDays(filter.getLoanDays()).build());
+        List<Long> values = Arrays.stream(ids).boxed().toList();
+        return (root, query, builder) -> {
+            Predicate predicate = QueryByExamplePredicateBuilder.getPredicate(root, builder, remaining);
+            return predicate == null
+                    ? root.get("id").in(values)
+                    : builder.and(root.get("id").in(values), predicate);
+        };
+    }
+
+    private static Specification<Book> matching(Example<Book> example) {
+        return (root, query, builder) -> QueryByExamplePredicateBuilder.getPredicate(root, builder, example);
+    }
+
+    private static Example<Book> example(Book filter) {
+        return Example.of(filter, ExampleMatcher.matching()
+                .withIgnoreCase()
+                .withIgnoreNullValues()
+                .withStringMatcher(ExampleMatcher.StringMatcher.CONTAINING));
     }
 
+    /**
+     * Immutable copy of the columns of a book, as held by the caches.
+     */
+    private record CachedBook(Long id, String title, String author, Integer loanDays, String isbn, Long version) {
+
+        static CachedBook of(Book book) {
+            return new CachedBook(book.getId(), book.getTitle(), book.getAuthor(), book.getLoanDays(), book.getIsbn(),
+                    book.getVersion());
+        }
+
+        Book toBook() {
+            return Book.builder().id(id).title(title).author(author).loanDays(loanDays).isbn(isbn).version(version).build();
+        }
+    }
 }
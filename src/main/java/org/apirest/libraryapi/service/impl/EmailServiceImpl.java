@@ -1,9 +1,9 @@
 package org.apirest.libraryapi.service.impl;
 
 import org.apirest.libraryapi.service.EmailService;
+import org.apirest.libraryapi.service.mail.MailDispatcher;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.mail.SimpleMailMessage;
-import org.springframework.mail.javamail.JavaMailSender;
 import org.springframework.stereotype.Service;
 
 import java.util.List;
@@ -14,20 +14,21 @@ public class EmailServiceImpl implements EmailService {
     @Value("${spring.mail.properties.mail.default-sender}")
     private String sender;
 
-    private final JavaMailSender javaMailSender;
+    private final MailDispatcher mailDispatcher;
 
-    public EmailServiceImpl(JavaMailSender javaMailSender){
-        this.javaMailSender = javaMailSender;
+    public EmailServiceImpl(MailDispatcher mailDispatcher){
+        this.mailDispatcher = mailDispatcher;
     }
 
     @Override
     public void sendMails(String message, List<String> mailsList) {
-        String[] mails = mailsList.toArray(new String[mailsList.size()]);
-        SimpleMailMessage mailMessage = new SimpleMailMessage();
-        mailMessage.setFrom(sender);
-        mailMessage.setSubject("Livro com empréstimo atrasado");
-        mailMessage.setText(message);
-        mailMessage.setTo(mails);
-        javaMailSender.send(mailMessage);
+        for (String mail : mailsList){
+            SimpleMailMessage mailMessage = new SimpleMailMessage();
+            mailMessage.setFrom(sender);
+            mailMessage.setSubject("Livro com empréstimo atrasado");
+            mailMessage.setText(message);
+            mailMessage.setTo(mail);
+            mailDispatcher.submit(mailMessage);
+        }
     }
 }
@@ -1,34 +1,128 @@
 package org.apirest.libraryapi.service.impl;
 
+import jakarta.persistence.EntityManager;
+import lombok.extern.slf4j.Slf4j;
 import org.apirest.libraryapi.api.dto.LoanFilterDto;
+import org.apirest.libraryapi.api.dto.LoanReturnResultDto;
 import org.apirest.libraryapi.exception.BusinessException;
+import org.apirest.libraryapi.exception.ConstraintViolations;
 import org.apirest.libraryapi.model.entity.Book;
+import org.apirest.libraryapi.model.entity.BookAvailability;
 import org.apirest.libraryapi.model.entity.Loan;
+import org.apirest.libraryapi.model.entity.LoanEvent;
+import org.apirest.libraryapi.model.repository.BookAvailabilityRepository;
+import org.apirest.libraryapi.model.repository.JobLeaseRepository;
+import org.apirest.libraryapi.model.repository.LoanEventRepository;
 import org.apirest.libraryapi.model.repository.LoanRepository;
+import org.apirest.libraryapi.model.repository.LoanRepository.LoansVersion;
+import org.apirest.libraryapi.model.repository.LoanRepository.OpenLoanDue;
+import org.apirest.libraryapi.service.LoanDueDateEvent;
 import org.apirest.libraryapi.service.LoanService;
+import org.apirest.libraryapi.service.OptimisticRetry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.KeysetScrollPosition;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Window;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.Duration;
+import java.time.Instant;
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
+@Slf4j
 @Service
 public class LoanServiceImpl implements LoanService {
 
+    private static final int RETURN_BATCH_SIZE = 1000;
+
+    private static final int MAX_IN_LIST = 1000;
+
+    public static final String REBUILD_LEASE = "availability-rebuild";
+
+    /**
+     * Longer than a rebuild takes, so a second instance never starts one while the first is still inserting.
+     */
+    private static final Duration REBUILD_LEASE_DURATION = Duration.ofMinutes(10);
+
     private LoanRepository repository;
 
-    public LoanServiceImpl(LoanRepository repository){
+    private final EntityManager entityManager;
+
+    private final OptimisticRetry optimisticRetry;
+
+    private final LoanEventRepository outbox;
+
+    private final BookAvailabilityRepository availability;
+
+    private final JobLeaseRepository leaseRepository;
+
+    private final ApplicationEventPublisher eventPublisher;
+
+    private final int defaultLoanDays;
+
+    private final String owner = UUID.randomUUID().toString();
+
+    public LoanServiceImpl(LoanRepository repository, LoanEventRepository outbox,
+                           BookAvailabilityRepository availability, JobLeaseRepository leaseRepository,
+                           EntityManager entityManager, OptimisticRetry optimisticRetry,
+                           ApplicationEventPublisher eventPublisher,
+                           @Value("${application.loans.default-days:4}") int defaultLoanDays){
         this.repository = repository;
+        this.outbox = outbox;
+        this.availability = availability;
+        this.leaseRepository = leaseRepository;
+        this.entityManager = entityManager;
+        this.optimisticRetry = optimisticRetry;
+        this.eventPublisher = eventPublisher;
+        this.defaultLoanDays = defaultLoanDays;
     }
 
+    /**
+     * Saves the loan, setting its due date from the book's loan period (or the default one) when
+     * the caller did not set a per-loan due date. The created event is written to the outbox in the
+     * same transaction.
+     */
     @Override
+    @Transactional
     public Loan save(Loan loan) {
-        if (repository.existsBookAlreadyLoaned(loan.getBook())){
-            throw new BusinessException("Book already loaned");
+        if (loan.getDueDate() == null && loan.getLoanDate() != null){
+            Integer loanDays = loan.getBook() == null ? null : loan.getBook().getLoanDays();
+            loan.setDueDate(loan.getLoanDate().plusDays(loanDays == null ? defaultLoanDays : loanDays));
+        }
+        Loan saved;
+        try {
+            saved = repository.saveAndFlush(loan);
+        } catch (DataIntegrityViolationException e){
+            throw alreadyLoaned(e);
+        }
+        outbox.save(LoanEvent.of(LoanEvent.Type.CREATED, saved));
+        if (!Boolean.TRUE.equals(saved.getReturned())){
+            lend(saved, 1);
         }
-        return repository.save(loan);
+        publishDueDate(saved);
+        return saved;
     }
 
     @Override
@@ -36,14 +130,97 @@ public class LoanServiceImpl implements LoanService {
         return repository.findById(id);
     }
 
+    /**
+     * Saves the loan, writing a returned or reopened event to the outbox when the returned flag changed.
+     */
     @Override
+    @Transactional
     public Loan update(Loan loan) {
-        return repository.save(loan);
+        boolean wasReturned = loan.getId() != null && Boolean.TRUE.equals(repository.findReturnedById(loan.getId()));
+        Loan updated = repository.save(loan);
+        returnChanged(updated, wasReturned);
+        publishDueDate(updated);
+        return updated;
+    }
+
+    /**
+     * Sets the returned flag on the current state of the loan, retrying when a concurrent update wins
+     * the version check. Re-opening a loan whose book was lent again in the meantime is rejected.
+     */
+    @Override
+    public Optional<Loan> returnLoan(Long id, boolean returned) {
+        Optional<Loan> loan;
+        try {
+            loan = optimisticRetry.execute("loan.return", () -> repository.findById(id)
+                    .map(current -> {
+                        boolean wasReturned = Boolean.TRUE.equals(current.getReturned());
+                        current.setReturned(returned);
+                        Loan saved = repository.saveAndFlush(current);
+                        returnChanged(saved, wasReturned);
+                        return saved;
+                    }));
+        } catch (DataIntegrityViolationException e){
+            throw alreadyLoaned(e);
+        }
+        loan.ifPresent(this::publishDueDate);
+        return loan;
+    }
+
+    /**
+     * Marks the given loans as returned with one locking select and one bulk update per batch of ids.
+     */
+    @Override
+    @Transactional
+    public LoanReturnResultDto returnLoans(Collection<Long> ids) {
+        List<Long> distinct = new ArrayList<>(new LinkedHashSet<>(ids));
+        List<Long> returned = new ArrayList<>();
+        List<Long> alreadyReturned = new ArrayList<>();
+        List<Long> missing = new ArrayList<>();
+        for (int from = 0; from < distinct.size(); from += RETURN_BATCH_SIZE){
+            List<Long> batch = distinct.subList(from, Math.min(from + RETURN_BATCH_SIZE, distinct.size()));
+            Set<Long> open = new HashSet<>(repository.lockOpenLoanIds(batch));
+            if (!open.isEmpty()){
+                repository.markReturned(open);
+                outbox.insertReturned(open, Instant.now());
+                availability.release(open);
+            }
+            List<Long> closed = batch.stream().filter(id -> !open.contains(id)).toList();
+            Collection<Long> existing = closed.isEmpty() ? List.of() : new HashSet<>(repository.findExistingIds(closed));
+            for (Long id : batch){
+                if (open.contains(id)){
+                    returned.add(id);
+                } else if (existing.contains(id)){
+                    alreadyReturned.add(id);
+                } else {
+                    missing.add(id);
+                }
+            }
+        }
+        if (!returned.isEmpty()){
+            eventPublisher.publishEvent(new LoanDueDateEvent(returned, null));
+        }
+        return new LoanReturnResultDto(returned, alreadyReturned, missing);
     }
 
     @Override
     public Page<Loan> findByFilter(LoanFilterDto loan, Pageable page) {
-        return repository.findByBookIsbnOrCustomer(loan.getIsbn(), loan.getCustomer(), page);
+        return repository.findAll(LoanRepository.filteredBy(loan.getIsbn(), loan.getCustomer()), page);
+    }
+
+    /**
+     * Same filter as {@link #findByFilter(LoanFilterDto, Pageable)} without the count query.
+     */
+    @Override
+    public Slice<Loan> findSliceByFilter(LoanFilterDto loan, Pageable page) {
+        return Slices.find(repository, LoanRepository.filteredBy(loan.getIsbn(), loan.getCustomer()), page);
+    }
+
+    @Override
+    public Window<Loan> findByFilter(LoanFilterDto loan, KeysetScrollPosition position, int size) {
+        return repository.findBy(LoanRepository.filteredBy(loan.getIsbn(), loan.getCustomer()), query -> query
+                .sortBy(Sort.by("id"))
+                .limit(size)
+                .scroll(position));
     }
 
     @Override
@@ -52,9 +229,145 @@ public class LoanServiceImpl implements LoanService {
     }
 
     @Override
-    public List<Loan> getAllLateLoans() {
-        final Integer loansDays = 4;
-        LocalDate closeToExpiration = LocalDate.now().minusDays(loansDays);
-        return repository.findByLateLoans(closeToExpiration);
+    public LoansVersion getLoansVersion(Book book) {
+        return repository.findLoansVersion(book);
+    }
+
+    /**
+     * Chunk of the open loans of sweep {@code partition} due on or before {@code date},
+     * in {@code (openDueDate, id)} order, after the loan {@code (afterDueDate, afterId)} unless it is the first chunk.
+     */
+    @Override
+    public List<Loan> findOverdueLoansInPartition(LocalDate date, int partition, LocalDate afterDueDate, Long afterId,
+                                                  int limit) {
+        Pageable chunk = PageRequest.ofSize(limit);
+        if (afterDueDate == null){
+            return repository.findOverdueLoansInPartition(date, partition, chunk);
+        }
+        return repository.findOverdueLoansInPartitionAfter(date, partition, afterDueDate, afterId, chunk);
+    }
+
+    @Override
+    public BookAvailability getAvailability(Long bookId) {
+        return availability.findById(bookId).orElseGet(() -> BookAvailability.available(bookId));
+    }
+
+    /**
+     * Availability of each of the books, read with one keyed lookup per {@value #MAX_IN_LIST} books.
+     */
+    @Override
+    public Map<Long, BookAvailability> getAvailability(Collection<Long> bookIds) {
+        Map<Long, BookAvailability> result = new LinkedHashMap<>();
+        bookIds.forEach(id -> result.put(id, BookAvailability.available(id)));
+        List<Long> ids = new ArrayList<>(result.keySet());
+        for (int from = 0; from < ids.size(); from += MAX_IN_LIST){
+            availability.findAllById(ids.subList(from, Math.min(from + MAX_IN_LIST, ids.size())))
+                    .forEach(found -> result.put(found.getBookId(), found));
+        }
+        return result;
+    }
+
+    /**
+     * Fills the availability of books lent before it was kept, once, when the table is still empty.
+     * Only the instance taking the {@value #REBUILD_LEASE} lease rebuilds; the others starting at the
+     * same time skip it. The lease is left to expire, and a later startup finds the table filled.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void rebuildAvailability() {
+        leaseRepository.createIfAbsent(REBUILD_LEASE, LocalDate.EPOCH);
+        Instant now = Instant.now();
+        if (leaseRepository.acquire(REBUILD_LEASE, LocalDate.EPOCH, owner, now, now.plus(REBUILD_LEASE_DURATION)) == 0){
+            return;
+        }
+        int rebuilt = availability.rebuildIfEmpty();
+        if (rebuilt > 0){
+            log.info("Rebuilt the availability of {} books", rebuilt);
+        }
+    }
+
+    /**
+     * Hands the loans among {@code ids} that are still open and due by today to the consumer, one chunk at a time.
+     */
+    @Override
+    public void processOverdueLoans(Collection<Long> ids, int chunkSize, Consumer<List<Loan>> consumer) {
+        LocalDate today = LocalDate.now();
+        List<Long> distinct = new ArrayList<>(new LinkedHashSet<>(ids));
+        for (int from = 0; from < distinct.size(); from += chunkSize){
+            List<Loan> loans = repository.findOverdueLoansByIds(
+                    distinct.subList(from, Math.min(from + chunkSize, distinct.size())), today);
+            if (!loans.isEmpty()){
+                consumer.accept(loans);
+            }
+        }
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public void forEachOpenLoanDue(LocalDate from, BiConsumer<Long, LocalDate> consumer) {
+        try (Stream<OpenLoanDue> loans = repository.streamOpenLoansDueFrom(from)) {
+            loans.forEach(loan -> consumer.accept(loan.getId(), loan.getDueDate()));
+        }
+    }
+
+    /**
+     * Walks every loan, with its book, over a single database cursor, detaching both once consumed.
+     */
+    @Override
+    @Transactional(readOnly = true)
+    public void exportLoans(Consumer<Loan> consumer) {
+        try (Stream<Loan> loans = repository.streamAll()) {
+            loans.forEach(loan -> {
+                consumer.accept(loan);
+                entityManager.detach(loan);
+                if (loan.getBook() != null){
+                    entityManager.detach(loan.getBook());
+                }
+            });
+        }
+    }
+
+    /**
+     * Writes the returned or reopened event and updates the book availability when the returned flag changed.
+     */
+    private void returnChanged(Loan loan, boolean wasReturned){
+        boolean returned = Boolean.TRUE.equals(loan.getReturned());
+        if (returned == wasReturned){
+            return;
+        }
+        outbox.save(LoanEvent.of(returned ? LoanEvent.Type.RETURNED : LoanEvent.Type.REOPENED, loan));
+        if (returned){
+            availability.release(List.of(loan.getId()));
+        } else {
+            lend(loan, 0);
+        }
+    }
+
+    /**
+     * Reports a violation of {@code uk_loan_active_book} as the book being already loaned, rethrowing any other.
+     */
+    private static RuntimeException alreadyLoaned(DataIntegrityViolationException e){
+        if (ConstraintViolations.isViolationOf(e, Loan.UK_ACTIVE_BOOK)){
+            return new BusinessException("Book already loaned");
+        }
+        return e;
+    }
+
+    private void lend(Loan loan, long borrowed){
+        if (loan.getBook() == null){
+            return;
+        }
+        Long bookId = loan.getBook().getId();
+        if (availability.lend(bookId, loan.getId(), borrowed) == 0){
+            availability.save(BookAvailability.builder().bookId(bookId).status(BookAvailability.Status.LOANED)
+                    .currentLoanId(loan.getId()).borrowCount(Math.max(borrowed, 1)).build());
+        }
+    }
+
+    /**
+     * Derived from the entity state rather than {@code openDueDate}, which is only synced when the loan is flushed.
+     */
+    private void publishDueDate(Loan loan){
+        LocalDate openDueDate = Boolean.TRUE.equals(loan.getReturned()) ? null : loan.getDueDate();
+        eventPublisher.publishEvent(new LoanDueDateEvent(List.of(loan.getId()), openDueDate));
     }
 }
@@ -0,0 +1,34 @@
+package org.apirest.libraryapi.service.impl;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.ScrollPosition;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
+import org.springframework.data.domain.Window;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+
+/**
+ * Count-free {@link Slice} reads: the page is fetched as an offset window of {@code size} rows,
+ * which reads one extra row to tell whether a next slice exists.
+ */
+final class Slices {
+
+    private Slices(){
+    }
+
+    static <T> Slice<T> find(JpaSpecificationExecutor<T> repository, Specification<T> specification, Pageable page){
+        if (page.isUnpaged()){
+            return new SliceImpl<>(repository.findAll(specification, page.getSort()));
+        }
+        // offset positions are exclusive: offset(n) starts right after the n-th row
+        ScrollPosition position = page.getOffset() == 0
+                ? ScrollPosition.offset()
+                : ScrollPosition.offset(page.getOffset() - 1);
+        Window<T> window = repository.findBy(specification, query -> query
+                .sortBy(page.getSort())
+                .limit(page.getPageSize())
+                .scroll(position));
+        return new SliceImpl<>(window.getContent(), page, window.hasNext());
+    }
+}
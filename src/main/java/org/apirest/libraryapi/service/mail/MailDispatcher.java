@@ -0,0 +1,205 @@
+package org.apirest.libraryapi.service.mail;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.mail.MailException;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.SimpleMailMessage;
+import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends mail off the caller's thread. Messages wait in a bounded queue; each worker drains up
+ * to {@code batchSize} of them and hands the batch to {@link JavaMailSender#send(SimpleMailMessage...)},
+ * which delivers the whole batch over a single SMTP connection. Messages that fail are retried
+ * with exponential backoff up to {@code maxAttempts} times. Workers run on virtual threads
+ * when {@code spring.threads.virtual.enabled} is set.
+ */
+@Slf4j
+@Component
+public class MailDispatcher {
+
+    private static final long POLL_MILLIS = 200;
+
+    private final JavaMailSender mailSender;
+
+    private final BlockingQueue<Envelope> queue;
+
+    private final int workers;
+
+    private final int batchSize;
+
+    private final int maxAttempts;
+
+    private final long backoffMillis;
+
+    private final long offerTimeoutMillis;
+
+    private final Counter sent;
+
+    private final Counter failed;
+
+    private final Counter retried;
+
+    private final Counter rejected;
+
+    private final Timer batches;
+
+    private final boolean virtualThreads;
+
+    private ExecutorService workerPool;
+
+    private ScheduledExecutorService retryScheduler;
+
+    private volatile boolean running;
+
+    public MailDispatcher(JavaMailSender mailSender, MeterRegistry meterRegistry,
+                          @Value("${application.mail.dispatcher.workers:2}") int workers,
+                          @Value("${application.mail.dispatcher.queue-capacity:10000}") int queueCapacity,
+                          @Value("${application.mail.dispatcher.batch-size:50}") int batchSize,
+                          @Value("${application.mail.dispatcher.max-attempts:3}") int maxAttempts,
+                          @Value("${application.mail.dispatcher.backoff-millis:1000}") long backoffMillis,
+                          @Value("${application.mail.dispatcher.offer-timeout-millis:5000}") long offerTimeoutMillis,
+                          @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads){
+        this.mailSender = mailSender;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.workers = workers;
+        this.batchSize = batchSize;
+        this.maxAttempts = maxAttempts;
+        this.backoffMillis = backoffMillis;
+        this.offerTimeoutMillis = offerTimeoutMillis;
+        this.virtualThreads = virtualThreads;
+        this.sent = meterRegistry.counter("library.mail.sent");
+        this.failed = meterRegistry.counter("library.mail.failed");
+        this.retried = meterRegistry.counter("library.mail.retried");
+        this.rejected = meterRegistry.counter("library.mail.rejected");
+        this.batches = meterRegistry.timer("library.mail.batch");
+        meterRegistry.gaugeCollectionSize("library.mail.queue.size", List.of(), queue);
+    }
+
+    @PostConstruct
+    public void start(){
+        running = true;
+        workerPool = Executors.newFixedThreadPool(workers, threadFactory("mail-dispatcher-"));
+        retryScheduler = Executors.newSingleThreadScheduledExecutor(threadFactory("mail-retry-"));
+        for (int i = 0; i < workers; i++){
+            workerPool.execute(this::work);
+        }
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        retryScheduler.shutdownNow();
+        workerPool.shutdown();
+        if (!workerPool.awaitTermination(30, TimeUnit.SECONDS)){
+            workerPool.shutdownNow();
+        }
+    }
+
+    /**
+     * Queues a message for delivery, waiting up to the configured offer timeout for room.
+     *
+     * @return {@code false} if the queue stayed full and the message was dropped
+     */
+    public boolean submit(SimpleMailMessage message){
+        try {
+            if (queue.offer(new Envelope(message, 0), offerTimeoutMillis, TimeUnit.MILLISECONDS)){
+                return true;
+            }
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+        rejected.increment();
+        log.warn("Mail queue full, dropping message to {}", (Object) message.getTo());
+        return false;
+    }
+
+    public int pending(){
+        return queue.size();
+    }
+
+    private void work(){
+        List<Envelope> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()){
+            try {
+                Envelope first = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null){
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+                batches.record(() -> send(batch));
+            } catch (InterruptedException e){
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e){
+                log.error("Unexpected error in mail dispatcher", e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void send(List<Envelope> batch){
+        SimpleMailMessage[] messages = batch.stream().map(Envelope::message).toArray(SimpleMailMessage[]::new);
+        try {
+            mailSender.send(messages);
+            sent.increment(batch.size());
+        } catch (MailSendException e){
+            Map<Object, Exception> failedMessages = e.getFailedMessages();
+            for (Envelope envelope : batch){
+                if (failedMessages.isEmpty() || failedMessages.containsKey(envelope.message())){
+                    retry(envelope, e);
+                } else {
+                    sent.increment();
+                }
+            }
+        } catch (MailException e){
+            batch.forEach(envelope -> retry(envelope, e));
+        }
+    }
+
+    private void retry(Envelope envelope, MailException cause){
+        int attempt = envelope.attempt() + 1;
+        if (attempt >= maxAttempts || !running){
+            failed.increment();
+            log.error("Giving up on mail to {} after {} attempts", envelope.message().getTo(), attempt, cause);
+            return;
+        }
+        retried.increment();
+        long delay = backoffMillis << (attempt - 1);
+        retryScheduler.schedule(() -> {
+            if (!queue.offer(new Envelope(envelope.message(), attempt))){
+                failed.increment();
+                log.error("Mail queue full, dropping retry to {}", (Object) envelope.message().getTo());
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private ThreadFactory threadFactory(String prefix){
+        if (virtualThreads){
+            return Thread.ofVirtual().name(prefix, 1).factory();
+        }
+        return Thread.ofPlatform().name(prefix, 1).daemon(true).factory();
+    }
+
+    private record Envelope(SimpleMailMessage message, int attempt) {
+    }
+}
@@ -0,0 +1,17 @@
+package org.apirest.libraryapi.service.outbox;
+
+import org.apirest.libraryapi.model.entity.LoanEvent;
+
+import java.util.List;
+
+/**
+ * Receives the loan events relayed from the outbox, in outbox order, so the events of a book
+ * arrive in the order they happened.
+ * <p>
+ * Delivery is at least once: when any consumer fails, the whole batch is delivered again to every
+ * consumer, so implementations must tolerate seeing an event twice.
+ */
+public interface LoanEventConsumer {
+
+    void accept(List<LoanEvent> events);
+}
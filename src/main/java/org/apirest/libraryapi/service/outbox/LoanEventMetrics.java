@@ -0,0 +1,25 @@
+package org.apirest.libraryapi.service.outbox;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
+import org.apirest.libraryapi.model.entity.LoanEvent;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * Counts the relayed loan events per type in {@code library.loans.events}.
+ */
+@RequiredArgsConstructor
+@Component
+public class LoanEventMetrics implements LoanEventConsumer {
+
+    private final MeterRegistry meterRegistry;
+
+    @Override
+    public void accept(List<LoanEvent> events) {
+        for (LoanEvent event : events){
+            meterRegistry.counter("library.loans.events", "type", event.getType().name().toLowerCase()).increment();
+        }
+    }
+}
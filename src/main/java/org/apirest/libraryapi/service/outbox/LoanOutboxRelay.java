@@ -0,0 +1,119 @@
+package org.apirest.libraryapi.service.outbox;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.apirest.libraryapi.model.entity.LoanEvent;
+import org.apirest.libraryapi.model.repository.JobLeaseRepository;
+import org.apirest.libraryapi.model.repository.LoanEventRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Drains the loan outbox in id order, handing each batch to every {@link LoanEventConsumer} and
+ * deleting it once all of them accepted it. A failed batch stays in the outbox and is retried, in
+ * full, on the next run.
+ * <p>
+ * Only the instance holding the {@value #LEASE} lease relays, so the events of a book are never
+ * delivered out of order by two instances at once; the lease is renewed on every batch and taken
+ * over by another instance once it expires.
+ * <p>
+ * Runs on the scheduler shared with the nightly sweep, which can block its thread for minutes while
+ * it waits on other instances' leases; {@code spring.task.scheduling.pool.size} leaves the relay a
+ * thread of its own meanwhile.
+ */
+@Slf4j
+@Component
+public class LoanOutboxRelay {
+
+    static final String LEASE = "loan-outbox";
+
+    /**
+     * The relay lease is never part of a dated run, it is always held against this one.
+     */
+    private static final LocalDate RUN = LocalDate.EPOCH;
+
+    private final LoanEventRepository eventRepository;
+
+    private final JobLeaseRepository leaseRepository;
+
+    private final List<LoanEventConsumer> consumers;
+
+    private final int batchSize;
+
+    private final Duration leaseDuration;
+
+    private final Clock clock;
+
+    private final String owner;
+
+    private final Counter delivered;
+
+    private final Counter failed;
+
+    private volatile boolean leaseCreated;
+
+    @Autowired
+    public LoanOutboxRelay(LoanEventRepository eventRepository, JobLeaseRepository leaseRepository,
+                           List<LoanEventConsumer> consumers, MeterRegistry meterRegistry,
+                           @Value("${application.outbox.batch-size:200}") int batchSize,
+                           @Value("${application.outbox.lease-seconds:30}") long leaseSeconds){
+        this(eventRepository, leaseRepository, consumers, meterRegistry, batchSize, Duration.ofSeconds(leaseSeconds),
+                Clock.systemDefaultZone(), UUID.randomUUID().toString());
+    }
+
+    public LoanOutboxRelay(LoanEventRepository eventRepository, JobLeaseRepository leaseRepository,
+                           List<LoanEventConsumer> consumers, MeterRegistry meterRegistry, int batchSize,
+                           Duration leaseDuration, Clock clock, String owner){
+        this.eventRepository = eventRepository;
+        this.leaseRepository = leaseRepository;
+        this.consumers = consumers;
+        this.batchSize = batchSize;
+        this.leaseDuration = leaseDuration;
+        this.clock = clock;
+        this.owner = owner;
+        this.delivered = meterRegistry.counter("library.outbox.events", "outcome", "delivered");
+        this.failed = meterRegistry.counter("library.outbox.events", "outcome", "failed");
+    }
+
+    @Scheduled(fixedDelayString = "${application.outbox.relay-delay-millis:500}")
+    public void relay(){
+        if (!leaseCreated){
+            leaseRepository.createIfAbsent(LEASE, RUN);
+            leaseCreated = true;
+        }
+        List<LoanEvent> batch;
+        do {
+            Instant now = clock.instant();
+            if (leaseRepository.acquire(LEASE, RUN, owner, now, now.plus(leaseDuration)) == 0){
+                return;
+            }
+            batch = eventRepository.findBatch(PageRequest.ofSize(batchSize));
+            if (batch.isEmpty()){
+                return;
+            }
+            try {
+                for (LoanEventConsumer consumer : consumers){
+                    consumer.accept(batch);
+                }
+            } catch (RuntimeException e){
+                log.warn("Failed to relay {} loan events from id {}, retrying on the next run",
+                        batch.size(), batch.get(0).getId(), e);
+                failed.increment(batch.size());
+                return;
+            }
+            eventRepository.deleteAllByIdInBatch(batch.stream().map(LoanEvent::getId).toList());
+            delivered.increment(batch.size());
+        } while (batch.size() == batchSize);
+    }
+}
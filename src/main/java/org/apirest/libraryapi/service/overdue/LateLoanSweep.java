@@ -0,0 +1,173 @@
+package org.apirest.libraryapi.service.overdue;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apirest.libraryapi.model.entity.JobLease;
+import org.apirest.libraryapi.model.entity.Loan;
+import org.apirest.libraryapi.model.repository.JobLeaseRepository;
+import org.apirest.libraryapi.service.LoanService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * Sweep of the overdue loans shared by every instance running it.
+ * <p>
+ * The loans are split by their stored {@link Loan#getSweepPartition() sweep partition}, one of
+ * {@value Loan#SWEEP_PARTITIONS}, each partition behind a {@link JobLease} row. Each instance claims
+ * whichever partitions are free, starting at a different one, so the partitions are swept in parallel
+ * across instances and each loan is handed to the consumer by one of them only.
+ * <p>
+ * Each partition is read along the {@code idx_loan_sweep} index, in {@code (openDueDate, id)} order
+ * after its partition, so a run reads each overdue loan once and loans created during the run still
+ * fall in a partition. A partition's lease is renewed after every chunk together
+ * with the due date and id of the last loan handed over. When an instance dies its lease expires after
+ * {@code application.overdue.lease-seconds} and another instance still sweeping takes it over,
+ * resuming after that loan, so at most the chunk in flight is repeated. Instances keep waiting on
+ * leases held by others until the run is complete.
+ */
+@Slf4j
+@Component
+public class LateLoanSweep {
+
+    static final String JOB = "late-loans";
+
+    private static final Duration MIN_WAIT = Duration.ofSeconds(1);
+
+    private static final Duration MAX_WAIT = Duration.ofSeconds(10);
+
+    private final JobLeaseRepository leaseRepository;
+
+    private final LoanService loanService;
+
+    private final Duration leaseDuration;
+
+    private final Clock clock;
+
+    private final String owner;
+
+    @Autowired
+    public LateLoanSweep(JobLeaseRepository leaseRepository, LoanService loanService,
+                         @Value("${application.overdue.lease-seconds:300}") long leaseSeconds){
+        this(leaseRepository, loanService, Duration.ofSeconds(leaseSeconds), Clock.systemDefaultZone(),
+                UUID.randomUUID().toString());
+    }
+
+    public LateLoanSweep(JobLeaseRepository leaseRepository, LoanService loanService, Duration leaseDuration,
+                         Clock clock, String owner){
+        this.leaseRepository = leaseRepository;
+        this.loanService = loanService;
+        this.leaseDuration = leaseDuration;
+        this.clock = clock;
+        this.owner = owner;
+    }
+
+    public void sweep(int chunkSize, Consumer<List<Loan>> consumer){
+        LocalDate today = LocalDate.now(clock);
+        List<String> run = plan(today);
+        Set<String> claimable = new LinkedHashSet<>();
+        int start = Math.floorMod(owner.hashCode(), run.size());
+        for (int i = 0; i < run.size(); i++){
+            claimable.add(run.get((start + i) % run.size()));
+        }
+        while (!claimable.isEmpty()){
+            boolean claimed = false;
+            for (String name : new ArrayList<>(claimable)){
+                Instant now = clock.instant();
+                if (leaseRepository.acquire(name, today, owner, now, now.plus(leaseDuration)) == 1){
+                    claimed = true;
+                    if (!sweepPartition(name, today, chunkSize, consumer)){
+                        claimable.remove(name);
+                    }
+                }
+            }
+            if (!claimed && !awaitLeases(claimable, today)){
+                return;
+            }
+        }
+    }
+
+    /**
+     * Starts the day's run of every partition, unless another instance already did, and returns the
+     * partition names. Each partition row holds its partition in {@code rangeFrom}.
+     */
+    private List<String> plan(LocalDate today){
+        List<String> run = new ArrayList<>(Loan.SWEEP_PARTITIONS);
+        for (int partition = 0; partition < Loan.SWEEP_PARTITIONS; partition++){
+            String name = JOB + "-" + partition;
+            leaseRepository.createIfAbsent(name, null);
+            leaseRepository.startRun(name, today, (long) partition, null, Instant.EPOCH);
+            run.add(name);
+        }
+        return run;
+    }
+
+    /**
+     * Sweeps the held partition from its last checkpoint. Returns {@code false} when this instance
+     * should not claim it again in this run, because it failed or the lease was lost.
+     */
+    private boolean sweepPartition(String name, LocalDate today, int chunkSize, Consumer<List<Loan>> consumer){
+        JobLease lease = leaseRepository.findById(name).orElseThrow();
+        LocalDate lastDueDate = lease.getLastDueDate();
+        Long lastId = lease.getLastId();
+        try {
+            List<Loan> loans;
+            do {
+                loans = loanService.findOverdueLoansInPartition(today, lease.getRangeFrom().intValue(), lastDueDate,
+                        lastId, chunkSize);
+                if (loans.isEmpty()){
+                    break;
+                }
+                consumer.accept(loans);
+                Loan last = loans.get(loans.size() - 1);
+                lastDueDate = last.getOpenDueDate();
+                lastId = last.getId();
+                if (leaseRepository.checkpoint(name, owner, lastDueDate, lastId, clock.instant().plus(leaseDuration)) == 0){
+                    log.warn("Lease {} was taken over by another instance after loan {}", name, lastId);
+                    return false;
+                }
+            } while (loans.size() == chunkSize);
+            leaseRepository.complete(name, owner, Instant.EPOCH);
+            return true;
+        } catch (RuntimeException e){
+            log.error("Failed to sweep {} after loan {}, leaving it to expire for another instance", name, lastId, e);
+            return false;
+        }
+    }
+
+    /**
+     * Waits for the earliest lease still held by another instance to expire, polling meanwhile in
+     * case it is completed sooner. Returns {@code false} when there is nothing left to wait for.
+     */
+    private boolean awaitLeases(Set<String> claimable, LocalDate today){
+        List<JobLease> pending = leaseRepository.findAllById(claimable).stream()
+                .filter(lease -> today.equals(lease.getRunDate()) && !Boolean.TRUE.equals(lease.getCompleted()))
+                .toList();
+        claimable.retainAll(pending.stream().map(JobLease::getName).toList());
+        Optional<Instant> expiry = pending.stream().map(JobLease::getLockedUntil).filter(Objects::nonNull)
+                .min(Instant::compareTo);
+        if (expiry.isEmpty()){
+            return false;
+        }
+        Duration wait = Duration.between(clock.instant(), expiry.get());
+        try {
+            Thread.sleep(wait.compareTo(MIN_WAIT) < 0 ? MIN_WAIT : wait.compareTo(MAX_WAIT) > 0 ? MAX_WAIT : wait);
+            return true;
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
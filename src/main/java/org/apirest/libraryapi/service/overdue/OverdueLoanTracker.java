@@ -0,0 +1,189 @@
+package org.apirest.libraryapi.service.overdue;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apirest.libraryapi.service.LoanDueDateEvent;
+import org.apirest.libraryapi.service.LoanService;
+import org.apirest.libraryapi.service.ScheduleService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * In-memory timing wheel of the open loans, with one slot per due date.
+ * <p>
+ * Filled at startup with the open loans due from today on and kept current by the
+ * {@link LoanDueDateEvent}s of the loan service. A single task is scheduled for the start of the
+ * earliest due date; when it runs, the loans of every slot reached are notified through
+ * {@link ScheduleService#notifyLateLoans(List)}, so no periodic scan of the loan table is needed.
+ * The loans are re-read before notifying, so a slot entry left behind by a missed event is harmless.
+ * <p>
+ * Loans already overdue at startup are not tracked, they were notified when they crossed their due
+ * date. Every instance loads every open loan at startup and nothing is claimed through the database,
+ * so with several instances each loan would be notified once per instance; those deployments keep
+ * the default {@code application.overdue.mode=scan}. Enabled by {@code application.overdue.mode=tracker}.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "application.overdue.mode", havingValue = "tracker")
+public class OverdueLoanTracker {
+
+    private static final Duration RETRY_DELAY = Duration.ofMinutes(1);
+
+    private final LoanService loanService;
+
+    private final ScheduleService scheduleService;
+
+    private final TaskScheduler taskScheduler;
+
+    private final Clock clock;
+
+    private final NavigableMap<LocalDate, Set<Long>> slots = new TreeMap<>();
+
+    private final Map<Long, LocalDate> dueDates = new HashMap<>();
+
+    private ScheduledFuture<?> next;
+
+    private Instant nextAt;
+
+    private Instant retryAt;
+
+    @Autowired
+    public OverdueLoanTracker(LoanService loanService, ScheduleService scheduleService, TaskScheduler taskScheduler){
+        this(loanService, scheduleService, taskScheduler, Clock.systemDefaultZone());
+    }
+
+    public OverdueLoanTracker(LoanService loanService, ScheduleService scheduleService, TaskScheduler taskScheduler,
+                              Clock clock){
+        this.loanService = loanService;
+        this.scheduleService = scheduleService;
+        this.taskScheduler = taskScheduler;
+        this.clock = clock;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void load(){
+        loanService.forEachOpenLoanDue(LocalDate.now(clock), this::put);
+        synchronized (this){
+            log.info("Tracking {} open loans for overdue notification", dueDates.size());
+            arm();
+        }
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public synchronized void onLoanDueDate(LoanDueDateEvent event){
+        for (Long id : event.loanIds()){
+            if (event.openDueDate() == null){
+                remove(id);
+            } else {
+                put(id, event.openDueDate());
+            }
+        }
+        arm();
+    }
+
+    public synchronized int size(){
+        return dueDates.size();
+    }
+
+    /**
+     * Notifies the loans of every slot up to today, then arms the task for the next slot.
+     */
+    public void fire(){
+        Map<Long, LocalDate> reached = new HashMap<>();
+        synchronized (this){
+            next = null;
+            nextAt = null;
+            retryAt = null;
+            NavigableMap<LocalDate, Set<Long>> heads = slots.headMap(LocalDate.now(clock), true);
+            heads.forEach((dueDate, ids) -> ids.forEach(id -> reached.put(id, dueDate)));
+            heads.clear();
+            reached.keySet().forEach(dueDates::remove);
+        }
+        List<Long> due = new ArrayList<>(reached.keySet());
+        try {
+            if (!due.isEmpty()){
+                loanService.processOverdueLoans(due, scheduleService.getChunkSize(), scheduleService::notifyLateLoans);
+            }
+        } catch (RuntimeException e){
+            log.error("Failed to notify {} overdue loans, retrying in {}", due.size(), RETRY_DELAY, e);
+            synchronized (this){
+                // loans re-tracked by an event in the meantime keep their new due date
+                reached.forEach((id, dueDate) -> {
+                    if (!dueDates.containsKey(id)){
+                        put(id, dueDate);
+                    }
+                });
+                retryAt = clock.instant().plus(RETRY_DELAY);
+            }
+        }
+        synchronized (this){
+            arm();
+        }
+    }
+
+    private synchronized void put(Long id, LocalDate dueDate){
+        LocalDate previous = dueDates.put(id, dueDate);
+        if (previous != null){
+            removeFromSlot(id, previous);
+        }
+        slots.computeIfAbsent(dueDate, key -> new HashSet<>()).add(id);
+    }
+
+    private void remove(Long id){
+        LocalDate previous = dueDates.remove(id);
+        if (previous != null){
+            removeFromSlot(id, previous);
+        }
+    }
+
+    private void removeFromSlot(Long id, LocalDate dueDate){
+        Set<Long> slot = slots.get(dueDate);
+        if (slot != null && slot.remove(id) && slot.isEmpty()){
+            slots.remove(dueDate);
+        }
+    }
+
+    /**
+     * Keeps a single task scheduled for the start of the earliest due date, not before a pending retry.
+     */
+    private void arm(){
+        if (slots.isEmpty()){
+            if (next != null){
+                next.cancel(false);
+                next = null;
+                nextAt = null;
+            }
+            return;
+        }
+        Instant at = slots.firstKey().atStartOfDay(clock.getZone()).toInstant();
+        if (retryAt != null && retryAt.isAfter(at)){
+            at = retryAt;
+        }
+        if (at.equals(nextAt)){
+            return;
+        }
+        if (next != null){
+            next.cancel(false);
+        }
+        nextAt = at;
+        next = taskScheduler.schedule(this::fire, at);
+    }
+}
@@ -0,0 +1,313 @@
+package org.apirest.libraryapi.service.search;
+
+import org.apirest.libraryapi.model.entity.Book;
+import org.apirest.libraryapi.model.repository.BookRepository.BookText;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory inverted trigram index over {@link Book#getTitle()} and {@link Book#getAuthor()}.
+ * <p>
+ * Answers the same question as the {@code CONTAINING}/ignore-case example matcher used by
+ * {@code BookServiceImpl#findByFilter}: posting lists narrow the candidates down to the books
+ * sharing every trigram of the term, and each candidate is then checked with a plain
+ * substring match, so results are exact. Terms shorter than three characters fall back to a
+ * scan of the in-memory documents.
+ * <p>
+ * The index is filled at startup and kept current by {@link BookSearchRefresher}, which applies
+ * the changes made through every instance, and by the book service, which applies its own as soon
+ * as they are committed; until {@link #markReady()} is called {@link #search(String, String)}
+ * returns {@code null} and callers must go to the database.
+ * <p>
+ * The occasional full reconcile runs between {@link #beginReconcile()} and
+ * {@link #endReconcile(long[])}. Books indexed or removed otherwise while it runs keep that state,
+ * since the copy read by the reconcile may be older.
+ */
+@Component
+public class BookSearchIndex {
+
+    private static final int TITLE = 0;
+
+    private static final int AUTHOR = 1;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final Map<Long, String[]> documents = new HashMap<>();
+
+    private final Map<Long, Postings> postings = new HashMap<>();
+
+    private volatile boolean ready;
+
+    private Set<Long> touched;
+
+    public boolean isReady(){
+        return ready;
+    }
+
+    public void markReady(){
+        ready = true;
+    }
+
+    public int size(){
+        lock.readLock().lock();
+        try {
+            return documents.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public void index(Book book){
+        if (book == null || book.getId() == null){
+            return;
+        }
+        String[] document = document(book.getTitle(), book.getAuthor());
+        lock.writeLock().lock();
+        try {
+            touch(book.getId());
+            put(book.getId(), document);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(Long id){
+        if (id == null){
+            return;
+        }
+        apply(List.of(), List.of(id));
+    }
+
+    /**
+     * Indexes {@code books} and removes {@code removed} under a single acquisition of the write lock.
+     */
+    public void apply(Collection<? extends BookText> books, Collection<Long> removed){
+        List<String[]> texts = books.stream().map(book -> document(book.getTitle(), book.getAuthor())).toList();
+        lock.writeLock().lock();
+        try {
+            int i = 0;
+            for (BookText book : books){
+                touch(book.getId());
+                put(book.getId(), texts.get(i++));
+            }
+            for (Long id : removed){
+                touch(id);
+                String[] previous = documents.remove(id);
+                if (previous != null){
+                    unindex(id, previous);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void beginReconcile(){
+        lock.writeLock().lock();
+        try {
+            touched = new HashSet<>();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Indexes a batch read by the running reconcile, leaving out the books indexed or removed
+     * otherwise since it began.
+     */
+    public void reconcile(Collection<? extends BookText> books){
+        List<String[]> texts = books.stream().map(book -> document(book.getTitle(), book.getAuthor())).toList();
+        lock.writeLock().lock();
+        try {
+            int i = 0;
+            for (BookText book : books){
+                String[] document = texts.get(i++);
+                if (touched == null || !touched.contains(book.getId())){
+                    put(book.getId(), document);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Ends the running reconcile, removing the books that were not read by it nor indexed otherwise
+     * since it began.
+     *
+     * @param seen ids of the books read by the reconcile, in ascending order, or {@code null} when
+     * it failed and nothing should be removed
+     */
+    public void endReconcile(long[] seen){
+        lock.writeLock().lock();
+        try {
+            if (seen != null && touched != null){
+                List<Long> missing = documents.keySet().stream()
+                        .filter(id -> Arrays.binarySearch(seen, id) < 0 && !touched.contains(id))
+                        .toList();
+                missing.forEach(id -> unindex(id, documents.remove(id)));
+            }
+            touched = null;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Ids, in ascending order, of the books whose title contains {@code title} and whose
+     * author contains {@code author}, ignoring case. Blank terms are not applied.
+     *
+     * @return the matching ids, or {@code null} when the index is not ready or neither term
+     * is given
+     */
+    public long[] search(String title, String author){
+        String[] terms = {normalize(title), normalize(author)};
+        if (!ready || (terms[TITLE].isEmpty() && terms[AUTHOR].isEmpty())){
+            return null;
+        }
+        lock.readLock().lock();
+        try {
+            Postings driver = null;
+            for (int field = 0; field < terms.length; field++){
+                for (long trigram : trigrams(field, terms[field])){
+                    Postings candidates = postings.get(trigram);
+                    if (candidates == null){
+                        return new long[0];
+                    }
+                    if (driver == null || candidates.size < driver.size){
+                        driver = candidates;
+                    }
+                }
+            }
+            return driver != null ? verify(driver.ids, driver.size, terms) : scan(terms);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private long[] verify(long[] ids, int size, String[] terms){
+        long[] result = new long[size];
+        int count = 0;
+        for (int i = 0; i < size; i++){
+            if (matches(documents.get(ids[i]), terms)){
+                result[count++] = ids[i];
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    private long[] scan(String[] terms){
+        long[] result = new long[documents.size()];
+        int count = 0;
+        for (Map.Entry<Long, String[]> document : documents.entrySet()){
+            if (matches(document.getValue(), terms)){
+                result[count++] = document.getKey();
+            }
+        }
+        result = Arrays.copyOf(result, count);
+        Arrays.sort(result);
+        return result;
+    }
+
+    private static boolean matches(String[] document, String[] terms){
+        return document != null
+                && document[TITLE].contains(terms[TITLE])
+                && document[AUTHOR].contains(terms[AUTHOR]);
+    }
+
+    private void touch(Long id){
+        if (touched != null){
+            touched.add(id);
+        }
+    }
+
+    private void put(Long id, String[] document){
+        String[] previous = documents.put(id, document);
+        if (Arrays.equals(previous, document)){
+            return;
+        }
+        if (previous != null){
+            unindex(id, previous);
+        }
+        for (int field = 0; field < document.length; field++){
+            for (long trigram : trigrams(field, document[field])){
+                postings.computeIfAbsent(trigram, key -> new Postings()).add(id);
+            }
+        }
+    }
+
+    private void unindex(Long id, String[] document){
+        for (int field = 0; field < document.length; field++){
+            for (long trigram : trigrams(field, document[field])){
+                Postings ids = postings.get(trigram);
+                if (ids != null && ids.remove(id) && ids.size == 0){
+                    postings.remove(trigram);
+                }
+            }
+        }
+    }
+
+    private static String[] document(String title, String author){
+        return new String[]{normalize(title), normalize(author)};
+    }
+
+    private static String normalize(String value){
+        return value == null ? "" : value.toLowerCase(Locale.ROOT);
+    }
+
+    private static Set<Long> trigrams(int field, String value){
+        Set<Long> trigrams = new HashSet<>();
+        for (int i = 0; i + 3 <= value.length(); i++){
+            trigrams.add(((long) field << 48)
+                    | ((long) value.charAt(i) << 32)
+                    | ((long) value.charAt(i + 1) << 16)
+                    | value.charAt(i + 2));
+        }
+        return trigrams;
+    }
+
+    /**
+     * Sorted, growable list of book ids. Ids are mostly assigned in increasing order, so adds
+     * are usually appends.
+     */
+    private static final class Postings {
+
+        private long[] ids = new long[4];
+
+        private int size;
+
+        void add(long id){
+            int position = Arrays.binarySearch(ids, 0, size, id);
+            if (position >= 0){
+                return;
+            }
+            position = -position - 1;
+            if (size == ids.length){
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            System.arraycopy(ids, position, ids, position + 1, size - position);
+            ids[position] = id;
+            size++;
+        }
+
+        boolean remove(long id){
+            int position = Arrays.binarySearch(ids, 0, size, id);
+            if (position < 0){
+                return false;
+            }
+            System.arraycopy(ids, position + 1, ids, position, size - position - 1);
+            size--;
+            return true;
+        }
+    }
+}
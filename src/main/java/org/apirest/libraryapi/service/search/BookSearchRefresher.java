@@ -0,0 +1,169 @@
+package org.apirest.libraryapi.service.search;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apirest.libraryapi.model.repository.BookChangeRepository;
+import org.apirest.libraryapi.model.repository.BookChangeRepository.ChangedBook;
+import org.apirest.libraryapi.model.repository.BookRepository;
+import org.apirest.libraryapi.model.repository.BookRepository.BookText;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.stream.LongStream;
+
+/**
+ * Keeps the {@link BookSearchIndex} of this instance in step with the book table.
+ * <p>
+ * Every write to a book also writes a {@code book_change} mark in its transaction. Each refresh
+ * reads the marks after the last one applied, joined with the current title and author of their
+ * books, and applies them a batch at a time. A mark id skipped on the way belongs to a transaction
+ * still running or rolled back: it is looked up again on the following refreshes until it shows up
+ * or {@link #GAP_TIMEOUT} passes; at most {@value #BATCH_SIZE} ids are looked up again at a time.
+ * <p>
+ * A full reconcile, on {@code application.search.reconcile-cron}, re-reads the whole table as a
+ * fallback for anything the marks missed and prunes the marks older than
+ * {@code application.search.change-retention-hours}.
+ */
+@Slf4j
+@Component
+public class BookSearchRefresher {
+
+    static final Duration GAP_TIMEOUT = Duration.ofMinutes(5);
+
+    private static final int BATCH_SIZE = 1000;
+
+    private final BookRepository bookRepository;
+
+    private final BookChangeRepository changeRepository;
+
+    private final BookSearchIndex searchIndex;
+
+    private final Duration changeRetention;
+
+    private final Clock clock;
+
+    private final Map<Long, Instant> gaps = new LinkedHashMap<>();
+
+    private long lastChangeId;
+
+    @Autowired
+    public BookSearchRefresher(BookRepository bookRepository, BookChangeRepository changeRepository,
+                               BookSearchIndex searchIndex,
+                               @Value("${application.search.change-retention-hours:24}") long changeRetentionHours){
+        this(bookRepository, changeRepository, searchIndex, Duration.ofHours(changeRetentionHours),
+                Clock.systemDefaultZone());
+    }
+
+    public BookSearchRefresher(BookRepository bookRepository, BookChangeRepository changeRepository,
+                               BookSearchIndex searchIndex, Duration changeRetention, Clock clock){
+        this.bookRepository = bookRepository;
+        this.changeRepository = changeRepository;
+        this.searchIndex = searchIndex;
+        this.changeRetention = changeRetention;
+        this.clock = clock;
+    }
+
+    /**
+     * Fills the index from the book table. The last mark is read first, so the changes committed
+     * while the table is read are applied again by the next refresh.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public synchronized void build() {
+        lastChangeId = changeRepository.findLastId().orElse(0L);
+        forEachBatch(books -> searchIndex.apply(books, List.of()));
+        searchIndex.markReady();
+    }
+
+    @Scheduled(fixedDelayString = "${application.search.refresh-millis:5000}",
+            initialDelayString = "${application.search.refresh-millis:5000}")
+    public synchronized void refresh() {
+        if (!searchIndex.isReady()){
+            return;
+        }
+        Instant now = clock.instant();
+        if (!gaps.isEmpty()){
+            List<ChangedBook> late = changeRepository.findChanges(new ArrayList<>(gaps.keySet()));
+            late.forEach(change -> gaps.remove(change.getChangeId()));
+            apply(late);
+            gaps.values().removeIf(since -> since.plus(GAP_TIMEOUT).isBefore(now));
+        }
+        List<ChangedBook> batch;
+        do {
+            batch = changeRepository.findChangesAfter(lastChangeId, PageRequest.ofSize(BATCH_SIZE));
+            for (ChangedBook change : batch){
+                for (long skipped = lastChangeId + 1; skipped < change.getChangeId() && gaps.size() < BATCH_SIZE; skipped++){
+                    gaps.put(skipped, now);
+                }
+                lastChangeId = change.getChangeId();
+            }
+            apply(batch);
+        } while (batch.size() == BATCH_SIZE);
+    }
+
+    /**
+     * Re-reads every book into the index, dropping the ones no longer in the table, and prunes the
+     * marks every instance has long applied.
+     */
+    @Scheduled(cron = "${application.search.reconcile-cron:0 30 4 * * *}")
+    public void reconcile() {
+        if (!searchIndex.isReady()){
+            return;
+        }
+        LongStream.Builder seen = LongStream.builder();
+        searchIndex.beginReconcile();
+        long[] ids;
+        try {
+            forEachBatch(books -> {
+                books.forEach(book -> seen.add(book.getId()));
+                searchIndex.reconcile(books);
+            });
+            ids = seen.build().toArray();
+        } catch (RuntimeException e){
+            searchIndex.endReconcile(null);
+            throw e;
+        }
+        searchIndex.endReconcile(ids);
+        int pruned = changeRepository.deleteChangedBefore(clock.instant().minus(changeRetention));
+        log.info("Reconciled the search index with {} books, pruned {} book changes", ids.length, pruned);
+    }
+
+    private void apply(List<ChangedBook> changes){
+        if (changes.isEmpty()){
+            return;
+        }
+        List<ChangedBook> indexed = new ArrayList<>(changes.size());
+        List<Long> removed = new ArrayList<>();
+        for (ChangedBook change : changes){
+            if (change.getId() == null){
+                removed.add(change.getBookId());
+            } else {
+                indexed.add(change);
+            }
+        }
+        searchIndex.apply(indexed, removed);
+    }
+
+    private void forEachBatch(Consumer<List<BookText>> action) {
+        List<BookText> batch;
+        long afterId = Long.MIN_VALUE;
+        do {
+            batch = bookRepository.findTextsAfter(afterId, PageRequest.ofSize(BATCH_SIZE));
+            if (!batch.isEmpty()){
+                action.accept(batch);
+                afterId = batch.get(batch.size() - 1).getId();
+            }
+        } while (batch.size() == BATCH_SIZE);
+    }
+}
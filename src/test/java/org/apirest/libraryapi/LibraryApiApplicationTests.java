@@ -1,13 +1,24 @@
 package org.apirest.libraryapi;
 
+import org.assertj.core.api.Assertions;
 import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
 
 @SpringBootTest
 class LibraryApiApplicationTests {
 
+    @Autowired
+    ThreadPoolTaskScheduler taskScheduler;
+
     @Test
     void contextLoads() {
     }
 
+    @Test
+    void schedulerRunsTasksInParallelTest() {
+        Assertions.assertThat(taskScheduler.getPoolSize()).isGreaterThan(1);
+    }
+
 }
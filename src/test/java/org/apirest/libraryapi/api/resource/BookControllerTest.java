@@ -2,9 +2,12 @@ package org.apirest.libraryapi.api.resource;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.SneakyThrows;
+import org.apirest.libraryapi.api.dto.BookBatchErrorDto;
 import org.apirest.libraryapi.api.dto.BookDto;
 import org.apirest.libraryapi.exception.BusinessException;
 import org.apirest.libraryapi.model.entity.Book;
+import org.apirest.libraryapi.model.entity.BookAvailability;
+import org.apirest.libraryapi.model.repository.LoanRepository.LoansVersion;
 import org.apirest.libraryapi.service.BookService;
 import org.apirest.libraryapi.service.LoanService;
 import org.junit.jupiter.api.DisplayName;
@@ -16,21 +19,36 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.data.domain.KeysetScrollPosition;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.ScrollPosition;
+import org.springframework.data.domain.SliceImpl;
+import org.springframework.data.domain.Window;
 import org.springframework.http.MediaType;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
 import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
 
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.function.Consumer;
 
 import static org.hamcrest.Matchers.hasSize;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @ExtendWith(SpringExtension.class)
@@ -77,7 +95,8 @@ public class BookControllerTest {
                 .andExpect(jsonPath("id").isNotEmpty())
                 .andExpect(jsonPath("title").value(book.getTitle()))
                 .andExpect(jsonPath("author").value(book.getAuthor()))
-                .andExpect(jsonPath("isbn").value(book.getIsbn()));
+                .andExpect(jsonPath("isbn").value(book.getIsbn()))
+                .andExpect(jsonPath("availability.status").value("AVAILABLE"));
     }
 
     private static BookDto createNewBook() {
@@ -130,6 +149,60 @@ public class BookControllerTest {
                 .andExpect(jsonPath("errors[0]").value("Livro com 'isbn' já cadastrado"));
     }
 
+    @SneakyThrows
+    @Test
+    @DisplayName("Deve importar livros em lote informando os itens rejeitados")
+    public void importBooksTest() {
+        List<BookDto> dtos = List.of(
+                createNewBook(),
+                BookDto.builder().title("Sem autor").isbn("123").build(),
+                BookDto.builder().author("Frank Herbert").title("Duna").isbn("55475").build()
+        );
+
+        BDDMockito.given(bookService.importBooks(BDDMockito.anyList()))
+                .willReturn(List.of(new BookBatchErrorDto(1, "55475", List.of("'isbn' repetido no lote"))));
+
+        MockHttpServletRequestBuilder request = MockMvcRequestBuilders
+                .post(BOOK_API.concat("/batch"))
+                .contentType(MediaType.APPLICATION_JSON)
+                .accept(MediaType.APPLICATION_JSON)
+                .content(new ObjectMapper().writeValueAsString(dtos));
+
+        mockMvc.perform(request)
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("received").value(3))
+                .andExpect(jsonPath("imported").value(1))
+                .andExpect(jsonPath("errors", hasSize(2)))
+                .andExpect(jsonPath("errors[0].index").value(1))
+                .andExpect(jsonPath("errors[0].errors", hasSize(1)))
+                .andExpect(jsonPath("errors[1].index").value(2))
+                .andExpect(jsonPath("errors[1].isbn").value("55475"));
+    }
+
+    @SneakyThrows
+    @Test
+    @DisplayName("Deve exportar os livros em NDJSON")
+    public void exportBooksTest() {
+        BDDMockito.willAnswer(invocation -> {
+            Consumer<Book> consumer = invocation.getArgument(0);
+            consumer.accept(Book.builder().id(1L).title("Duna").author("Frank Herbert").isbn("001").build());
+            consumer.accept(Book.builder().id(2L).title("Fundação").author("Isaac Asimov").isbn("002").build());
+            return null;
+        }).given(bookService).exportBooks(BDDMockito.any());
+
+        MvcResult result = mockMvc.perform(MockMvcRequestBuilders.get(BOOK_API.concat("/export")))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType("application/x-ndjson"))
+                .andExpect(content().bytes((
+                        "{\"id\":1,\"title\":\"Duna\",\"author\":\"Frank Herbert\",\"isbn\":\"001\"}\n" +
+                        "{\"id\":2,\"title\":\"Fundação\",\"author\":\"Isaac Asimov\",\"isbn\":\"002\"}\n")
+                        .getBytes(StandardCharsets.UTF_8)));
+    }
+
     @SneakyThrows
     @Test
     @DisplayName("Deve obter informações de um livro")
@@ -140,9 +213,12 @@ public class BookControllerTest {
                 .title(createNewBook().getTitle())
                 .author(createNewBook().getAuthor())
                 .isbn(createNewBook().getIsbn())
+                .version(2L)
                 .build();
 
-        BDDMockito.given(bookService.getBookById(id)).willReturn(Optional.of(book));
+        BDDMockito.given(bookService.getBookVersion(id)).willReturn(Optional.of(2L));
+        BDDMockito.given(bookService.getBookById(id, 2L)).willReturn(Optional.of(book));
+        BDDMockito.given(loanService.getAvailability(id)).willReturn(loanedAvailability(id));
 
         MockHttpServletRequestBuilder request = MockMvcRequestBuilders
                 .get(BOOK_API.concat("/" + id))
@@ -150,10 +226,151 @@ public class BookControllerTest {
 
         mockMvc.perform(request)
                 .andExpect(status().isOk())
+                .andExpect(header().string("ETag", "\"2-3\""))
                 .andExpect(jsonPath("id").value(id))
                 .andExpect(jsonPath("title").value(createNewBook().getTitle()))
                 .andExpect(jsonPath("author").value(createNewBook().getAuthor()))
-                .andExpect(jsonPath("isbn").value(createNewBook().getIsbn()));
+                .andExpect(jsonPath("isbn").value(createNewBook().getIsbn()))
+                .andExpect(jsonPath("availability.status").value("LOANED"))
+                .andExpect(jsonPath("availability.currentLoanId").value(5))
+                .andExpect(jsonPath("availability.borrowCount").value(4));
+    }
+
+    @SneakyThrows
+    @Test
+    @DisplayName("Deve obter a disponibilidade de um livro")
+    public void getBookAvailabilityTest() {
+        BDDMockito.given(bookService.getBookVersion(1L)).willReturn(Optional.of(2L));
+        BDDMockito.given(loanService.getAvailability(1L)).willReturn(loanedAvailability(1L));
+
+        mockMvc.perform(MockMvcRequestBuilders.get(BOOK_API.concat("/1/availability")))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", "\"3\""))
+                .andExpect(jsonPath("bookId").value(1))
+                .andExpect(jsonPath("status").value("LOANED"))
+                .andExpect(jsonPath("currentLoanId").value(5))
+                .andExpect(jsonPath("borrowCount").value(4));
+
+        mockMvc.perform(MockMvcRequestBuilders.get(BOOK_API.concat("/1/availability")).header("If-None-Match", "\"3\""))
+                .andExpect(status().isNotModified());
+    }
+
+    @SneakyThrows
+    @Test
+    @DisplayName("Deve retornar 'não encontrado' para a disponibilidade de um livro inexistente")
+    public void getAvailabilityOfMissingBookTest() {
+        BDDMockito.given(bookService.getBookVersion(1L)).willReturn(Optional.empty());
+
+        mockMvc.perform(MockMvcRequestBuilders.get(BOOK_API.concat("/1/availability")))
+                .andExpect(status().isNotFound());
+    }
+
+    @SneakyThrows
+    @Test
+    @DisplayName("Deve obter a disponibilidade de vários livros pelos isbns")
+    public void getAvailabilityByIsbnTest() {
+        BDDMockito.given(bookService.getBookIdsByIsbn(List.of("123", "999", "456")))
+                .willReturn(Map.of("123", 1L, "456", 2L));
+        BDDMockito.given(loanService.getAvailability(Mockito.<Collection<Long>>argThat(ids -> ids.size() == 2 && ids.containsAll(List.of(1L, 2L)))))
+                .willReturn(Map.of(1L, loanedAvailability(1L), 2L, BookAvailability.available(2L)));
+
+        mockMvc.perform(MockMvcRequestBuilders.get(BOOK_API.concat("/availability"))
+                        .param("isbn", "123", "999", "456", "123"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("books", hasSize(2)))
+                .andExpect(jsonPath("books[0].isbn").value("123"))
+                .andExpect(jsonPath("books[0].bookId").value(1))
+                .andExpect(jsonPath("books[0].status").value("LOANED"))
+                .andExpect(jsonPath("books[0].currentLoanId").value(5))
+                .andExpect(jsonPath("books[1].isbn").value("456"))
+                .andExpect(jsonPath("books[1].status").value("AVAILABLE"))
+                .andExpect(jsonPath("missing", hasSize(1)))
+                .andExpect(jsonPath("missing[0]").value("999"));
+
+        Mockito.verify(bookService, Mockito.never()).getBookByIsbn(Mockito.anyString());
+    }
+
+    @SneakyThrows
+    @Test
+    @DisplayName("Deve obter a disponibilidade de vários livros pelos isbns enviados no corpo")
+    public void postAvailabilityByIsbnTest() {
+        BDDMockito.given(bookService.getBookIdsByIsbn(List.of("123", "456"))).willReturn(Map.of("456", 2L));
+        BDDMockito.given(loanService.getAvailability(Mockito.<Collection<Long>>argThat(ids -> ids.size() == 1 && ids.contains(2L))))
+                .willReturn(Map.of(2L, BookAvailability.available(2L)));
+
+        mockMvc.perform(MockMvcRequestBuilders.post(BOOK_API.concat("/availability"))
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[\"123\", \"456\"]"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("books", hasSize(1)))
+                .andExpect(jsonPath("books[0].isbn").value("456"))
+                .andExpect(jsonPath("books[0].bookId").value(2))
+                .andExpect(jsonPath("books[0].borrowCount").value(0))
+                .andExpect(jsonPath("missing[0]").value("123"));
+    }
+
+    @SneakyThrows
+    @Test
+    @DisplayName("Deve responder 'não modificado' quando a versão do livro não mudou")
+    public void bookNotModifiedTest() {
+        BDDMockito.given(bookService.getBookVersion(1L)).willReturn(Optional.of(2L));
+        BDDMockito.given(loanService.getAvailability(1L)).willReturn(loanedAvailability(1L));
+
+        MockHttpServletRequestBuilder request = MockMvcRequestBuilders
+                .get(BOOK_API.concat("/1"))
+                .header("If-None-Match", "\"2-3\"")
+                .accept(MediaType.APPLICATION_JSON);
+
+        mockMvc.perform(request)
+                .andExpect(status().isNotModified())
+                .andExpect(header().string("ETag", "\"2-3\""))
+                .andExpect(content().string(""));
+
+        Mockito.verify(bookService, Mockito.never()).getBookById(Mockito.anyLong(), Mockito.anyLong());
+    }
+
+    @SneakyThrows
+    @Test
+    @DisplayName("Deve responder 'não modificado' quando os empréstimos do livro não mudaram")
+    public void loansByBookNotModifiedTest() {
+        Book book = Book.builder().id(1L).version(2L).build();
+        BDDMockito.given(bookService.getBookById(1L)).willReturn(Optional.of(book));
+        BDDMockito.given(loanService.getLoansVersion(book)).willReturn(loansVersion(3, 7, 12));
+        BDDMockito.given(loanService.getLoansByBook(Mockito.eq(book), Mockito.any(Pageable.class)))
+                .willReturn(new PageImpl<>(List.of(), PageRequest.of(0, 20), 3));
+
+        mockMvc.perform(MockMvcRequestBuilders.get(BOOK_API.concat("/1/loans")))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", "\"2-3-7-12\""));
+
+        mockMvc.perform(MockMvcRequestBuilders.get(BOOK_API.concat("/1/loans")).header("If-None-Match", "\"2-3-7-12\""))
+                .andExpect(status().isNotModified());
+
+        Mockito.verify(loanService, Mockito.times(1)).getLoansByBook(Mockito.eq(book), Mockito.any(Pageable.class));
+    }
+
+    private static BookAvailability loanedAvailability(Long bookId) {
+        return BookAvailability.builder().bookId(bookId).status(BookAvailability.Status.LOANED)
+                .currentLoanId(5L).borrowCount(4).version(3L).build();
+    }
+
+    private static LoansVersion loansVersion(long count, long versions, long lastId) {
+        return new LoansVersion() {
+            @Override
+            public long getCount() {
+                return count;
+            }
+
+            @Override
+            public long getVersions() {
+                return versions;
+            }
+
+            @Override
+            public long getLastId() {
+                return lastId;
+            }
+        };
     }
 
     @SneakyThrows
@@ -213,14 +430,12 @@ public class BookControllerTest {
                 .title("The Lord Of The Rings")
                 .isbn("55475")
                 .build();
-        BDDMockito.given(bookService.getBookById(id)).willReturn(Optional.of(book));
-        Book updatedBook = Book.builder()
-                .id(id)
-                .author("J.R.R Tolkien")
-                .title("The Lord Of The Rings")
-                .isbn("55475")
-                .build();
-        BDDMockito.given(bookService.update(book)).willReturn(updatedBook);
+        BDDMockito.given(bookService.update(BDDMockito.eq(id), BDDMockito.isNull(), BDDMockito.any())).willAnswer(invocation -> {
+            Consumer<Book> changes = invocation.getArgument(2);
+            changes.accept(book);
+            return Optional.of(book);
+        });
+        BDDMockito.given(loanService.getAvailability(id)).willReturn(loanedAvailability(id));
 
         MockHttpServletRequestBuilder request = MockMvcRequestBuilders
                 .put(BOOK_API.concat("/" + 1))
@@ -233,7 +448,8 @@ public class BookControllerTest {
                 .andExpect(jsonPath("id").value(id))
                 .andExpect(jsonPath("title").value(createNewBook().getTitle()))
                 .andExpect(jsonPath("author").value(createNewBook().getAuthor()))
-                .andExpect(jsonPath("isbn").value("55475"));
+                .andExpect(jsonPath("isbn").value("55475"))
+                .andExpect(jsonPath("availability.status").value("LOANED"));
     }
 
     @SneakyThrows
@@ -242,7 +458,7 @@ public class BookControllerTest {
     public void updateNotFoundBook() {
         String json = new ObjectMapper().writeValueAsString(createNewBook());
 
-        BDDMockito.given(bookService.getBookById(BDDMockito.anyLong()))
+        BDDMockito.given(bookService.update(BDDMockito.anyLong(), BDDMockito.any(), BDDMockito.any()))
                 .willReturn(Optional.empty());
         MockHttpServletRequestBuilder request = MockMvcRequestBuilders
                 .put(BOOK_API.concat("/" + 1))
@@ -254,6 +470,53 @@ public class BookControllerTest {
                 .andExpect(status().isNotFound());
     }
 
+    @SneakyThrows
+    @Test
+    @DisplayName("Deve retornar conflito quando o livro continuar sendo alterado concorrentemente")
+    public void updateConflictBookTest() {
+        String json = new ObjectMapper().writeValueAsString(createNewBook());
+
+        BDDMockito.given(bookService.update(BDDMockito.anyLong(), BDDMockito.any(), BDDMockito.any()))
+                .willThrow(new ObjectOptimisticLockingFailureException(Book.class, 1L));
+        MockHttpServletRequestBuilder request = MockMvcRequestBuilders
+                .put(BOOK_API.concat("/" + 1))
+                .content(json)
+                .accept(MediaType.APPLICATION_JSON)
+                .contentType(MediaType.APPLICATION_JSON);
+
+        mockMvc.perform(request)
+                .andExpect(status().isConflict())
+                .andExpect(jsonPath("errors", hasSize(1)));
+    }
+
+    @SneakyThrows
+    @Test
+    @DisplayName("Deve atualizar um livro apenas na versão informada pelo 'If-Match'")
+    public void updateBookIfMatchTest() {
+        String json = new ObjectMapper().writeValueAsString(createNewBook());
+        Book book = Book.builder().id(1L).version(3L).isbn("55475").build();
+        BDDMockito.given(bookService.update(BDDMockito.eq(1L), BDDMockito.eq(2L), BDDMockito.any())).willAnswer(invocation -> {
+            Consumer<Book> changes = invocation.getArgument(2);
+            changes.accept(book);
+            return Optional.of(book);
+        });
+        BDDMockito.given(bookService.update(BDDMockito.eq(1L), BDDMockito.eq(1L), BDDMockito.any()))
+                .willThrow(new ObjectOptimisticLockingFailureException(Book.class, 1L));
+
+        mockMvc.perform(MockMvcRequestBuilders.put(BOOK_API.concat("/1")).header("If-Match", "\"2-3\"")
+                        .content(json).contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("title").value(createNewBook().getTitle()));
+
+        mockMvc.perform(MockMvcRequestBuilders.put(BOOK_API.concat("/1")).header("If-Match", "\"1-3\"")
+                        .content(json).contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isPreconditionFailed());
+
+        mockMvc.perform(MockMvcRequestBuilders.put(BOOK_API.concat("/1")).header("If-Match", "\"abc\"")
+                        .content(json).contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isPreconditionFailed());
+    }
+
     @SneakyThrows
     @Test
     @DisplayName("Deve filtrar livros da base de dados")
@@ -269,6 +532,7 @@ public class BookControllerTest {
 
         BDDMockito.given(bookService.findByFilter(Mockito.any(Book.class), Mockito.any(Pageable.class)))
                 .willReturn(new PageImpl<>(Arrays.asList(book), PageRequest.of(0,100),1));
+        BDDMockito.given(loanService.getAvailability(List.of(id))).willReturn(Map.of(id, BookAvailability.available(id)));
 
         String queryString = String.format("?title=%s&author=%s&page=0&size=100",
                 book.getTitle(), book.getAuthor());
@@ -281,7 +545,79 @@ public class BookControllerTest {
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("content", hasSize(1)))
                 .andExpect(jsonPath("totalElements").value(1))
+                .andExpect(jsonPath("content[0].availability.status").value("AVAILABLE"))
+                .andExpect(jsonPath("content[0].availability.borrowCount").value(0))
                 .andExpect(jsonPath("pageable.pageSize").value(100))
                 .andExpect(jsonPath("pageable.pageNumber").value(0));
     }
-}
\ No newline at end of file
+
+    @SneakyThrows
+    @Test
+    @DisplayName("Deve filtrar livros em modo slice sem contar o total")
+    public void findFilterBookSlice() {
+        Book book = Book.builder()
+                .id(1L)
+                .title(createNewBook().getTitle())
+                .author(createNewBook().getAuthor())
+                .isbn(createNewBook().getIsbn())
+                .build();
+
+        BDDMockito.given(bookService.findSliceByFilter(Mockito.any(Book.class), Mockito.any(Pageable.class)))
+                .willReturn(new SliceImpl<>(List.of(book), PageRequest.of(2, 1), true));
+
+        MockHttpServletRequestBuilder request = MockMvcRequestBuilders
+                .get(BOOK_API.concat("?author=Lewis&page=2&size=1&slice=true"))
+                .accept(MediaType.APPLICATION_JSON);
+
+        mockMvc.perform(request)
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("content", hasSize(1)))
+                .andExpect(jsonPath("number").value(2))
+                .andExpect(jsonPath("size").value(1))
+                .andExpect(jsonPath("hasNext").value(true))
+                .andExpect(jsonPath("totalElements").doesNotExist());
+
+        Mockito.verify(bookService, Mockito.never()).findByFilter(Mockito.any(Book.class), Mockito.any(Pageable.class));
+    }
+
+    @SneakyThrows
+    @Test
+    @DisplayName("Deve filtrar livros da base de dados por cursor")
+    public void findFilterBookAfterCursor() {
+        Book book = Book.builder()
+                .id(7L)
+                .title(createNewBook().getTitle())
+                .author(createNewBook().getAuthor())
+                .isbn(createNewBook().getIsbn())
+                .build();
+
+        BDDMockito.given(bookService.findByFilter(Mockito.any(Book.class), Mockito.any(KeysetScrollPosition.class), Mockito.eq(1)))
+                .willReturn(Window.from(List.of(book), i -> ScrollPosition.forward(Map.of("id", book.getId())), true));
+        BDDMockito.given(loanService.getAvailability(List.of(7L))).willReturn(Map.of(7L, loanedAvailability(7L)));
+
+        MockHttpServletRequestBuilder request = MockMvcRequestBuilders
+                .get(BOOK_API.concat("?title=Lord&after=&size=1"))
+                .accept(MediaType.APPLICATION_JSON);
+
+        mockMvc.perform(request)
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("content", hasSize(1)))
+                .andExpect(jsonPath("content[0].id").value(7))
+                .andExpect(jsonPath("content[0].availability.status").value("LOANED"))
+                .andExpect(jsonPath("size").value(1))
+                .andExpect(jsonPath("nextCursor").value("Nw"));
+    }
+
+    @SneakyThrows
+    @Test
+    @DisplayName("Deve retornar erro ao filtrar livros com cursor inválido")
+    public void findFilterBookInvalidCursor() {
+        MockHttpServletRequestBuilder request = MockMvcRequestBuilders
+                .get(BOOK_API.concat("?after=not-a-cursor"))
+                .accept(MediaType.APPLICATION_JSON);
+
+        mockMvc.perform(request)
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("errors[0]").value("Invalid cursor"));
+    }
+}
@@ -4,6 +4,7 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.SneakyThrows;
 import org.apirest.libraryapi.api.dto.LoanDto;
 import org.apirest.libraryapi.api.dto.LoanFilterDto;
+import org.apirest.libraryapi.api.dto.LoanReturnResultDto;
 import org.apirest.libraryapi.api.dto.ReturnedLoanDto;
 import org.apirest.libraryapi.exception.BusinessException;
 import org.apirest.libraryapi.model.entity.Book;
@@ -11,30 +12,42 @@ import org.apirest.libraryapi.model.entity.Loan;
 import org.apirest.libraryapi.model.service.LoanServiceTest;
 import org.apirest.libraryapi.service.BookService;
 import org.apirest.libraryapi.service.LoanService;
+import org.assertj.core.api.Assertions;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.BDDMockito;
 import org.mockito.Mockito;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.data.domain.KeysetScrollPosition;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.ScrollPosition;
+import org.springframework.data.domain.SliceImpl;
+import org.springframework.data.domain.Window;
 import org.springframework.http.MediaType;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
 import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
 
 import java.time.LocalDate;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Optional;
+import java.util.function.Consumer;
 
+import static org.hamcrest.Matchers.endsWith;
 import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.startsWith;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
 @ExtendWith(SpringExtension.class)
@@ -89,6 +102,39 @@ public class LoanControllerTest {
             .andExpect(content().string("1"));
     }
 
+    @SneakyThrows
+    @Test
+    @DisplayName("Deve realizar um empréstimo com prazo próprio em dias")
+    public void createLoanWithLoanDaysTest(){
+        LoanDto dto = LoanDto.builder()
+                .isbn("001")
+                .email("bob@gmail.com")
+                .customer("Bob")
+                .loanDays(10)
+                .build();
+        String json = new ObjectMapper().writeValueAsString(dto);
+        Book book = Book.builder().id(1L).isbn("001").loanDays(3).build();
+        BDDMockito.given(bookService.getBookByIsbn("001")).willReturn(Optional.of(book));
+        BDDMockito.given(loanService.save(Mockito.any(Loan.class))).willAnswer(invocation -> {
+            Loan loan = invocation.getArgument(0);
+            loan.setId(1L);
+            return loan;
+        });
+
+        MockHttpServletRequestBuilder request = MockMvcRequestBuilders
+                .post(LOAN_API)
+                .contentType(MediaType.APPLICATION_JSON)
+                .accept(MediaType.APPLICATION_JSON)
+                .content(json);
+
+        mockMvc.perform(request)
+                .andExpect(status().isCreated());
+
+        ArgumentCaptor<Loan> saved = ArgumentCaptor.forClass(Loan.class);
+        Mockito.verify(loanService).save(saved.capture());
+        Assertions.assertThat(saved.getValue().getDueDate()).isEqualTo(LocalDate.now().plusDays(10));
+    }
+
     @SneakyThrows
     @Test
     @DisplayName("Deve retornar erro ao tentar fazer um empréstimo de um livro inexistente")
@@ -153,8 +199,8 @@ public class LoanControllerTest {
                 .build();
         String json = new ObjectMapper().writeValueAsString(dto);
 
-        Loan loan = Loan.builder().id(1L).build();
-        BDDMockito.given(loanService.getById(Mockito.anyLong()))
+        Loan loan = Loan.builder().id(1L).returned(true).build();
+        BDDMockito.given(loanService.returnLoan(1L, true))
                 .willReturn(Optional.of(loan));
 
         MockHttpServletRequestBuilder request = MockMvcRequestBuilders
@@ -166,7 +212,7 @@ public class LoanControllerTest {
         mockMvc.perform(request)
                 .andExpect(status().isOk());
 
-        Mockito.verify(loanService, Mockito.times(1)).update(loan);
+        Mockito.verify(loanService, Mockito.times(1)).returnLoan(1L, true);
     }
 
     @SneakyThrows
@@ -178,7 +224,7 @@ public class LoanControllerTest {
                 .build();
         String json = new ObjectMapper().writeValueAsString(dto);
 
-        BDDMockito.given(loanService.getById(Mockito.anyLong()))
+        BDDMockito.given(loanService.returnLoan(Mockito.anyLong(), Mockito.anyBoolean()))
                 .willReturn(Optional.empty());
         MockHttpServletRequestBuilder request = MockMvcRequestBuilders
                 .patch(LOAN_API.concat("/1"))
@@ -190,6 +236,51 @@ public class LoanControllerTest {
                 .andExpect(status().isNotFound());
     }
 
+    @SneakyThrows
+    @Test
+    @DisplayName("Deve exportar os empréstimos em NDJSON")
+    public void exportLoansTest(){
+        Loan loan = LoanServiceTest.createLoan();
+        loan.setId(7L);
+        loan.getBook().setIsbn("123");
+        BDDMockito.willAnswer(invocation -> {
+            Consumer<Loan> consumer = invocation.getArgument(0);
+            consumer.accept(loan);
+            return null;
+        }).given(loanService).exportLoans(BDDMockito.any());
+
+        MvcResult result = mockMvc.perform(MockMvcRequestBuilders.get(LOAN_API.concat("/export")))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType("application/x-ndjson"))
+                .andExpect(content().string(startsWith("{\"id\":7,\"isbn\":\"123\",\"customer\":\"Bob\"")))
+                .andExpect(content().string(endsWith("}\n")));
+    }
+
+    @SneakyThrows
+    @Test
+    @DisplayName("Deve devolver empréstimos em lote")
+    public void returnBooksTest(){
+        BDDMockito.given(loanService.returnLoans(Arrays.asList(1L, 2L, 3L)))
+                .willReturn(new LoanReturnResultDto(List.of(1L), List.of(2L), List.of(3L)));
+        MockHttpServletRequestBuilder request = MockMvcRequestBuilders
+                .patch(LOAN_API.concat("/returns"))
+                .contentType(MediaType.APPLICATION_JSON)
+                .accept(MediaType.APPLICATION_JSON)
+                .content("[1, 2, 3]");
+
+        mockMvc.perform(request)
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("returned[0]").value(1))
+                .andExpect(jsonPath("alreadyReturned[0]").value(2))
+                .andExpect(jsonPath("missing[0]").value(3));
+
+        Mockito.verify(loanService, Mockito.never()).update(Mockito.any(Loan.class));
+    }
+
     @SneakyThrows
     @Test
     @DisplayName("Deve filtrar emprestimos de livros da base de dados")
@@ -218,4 +309,46 @@ public class LoanControllerTest {
                 .andExpect(jsonPath("pageable.pageSize").value(10))
                 .andExpect(jsonPath("pageable.pageNumber").value(0));
     }
+
+    @SneakyThrows
+    @Test
+    @DisplayName("Deve filtrar emprestimos em modo slice sem contar o total")
+    public void findFilterLoanSlice() {
+        Loan loan = LoanServiceTest.createLoan();
+        loan.setId(1L);
+
+        BDDMockito.given(loanService.findSliceByFilter(Mockito.any(LoanFilterDto.class), Mockito.any(Pageable.class)))
+                .willReturn(new SliceImpl<>(List.of(loan), PageRequest.of(0, 10), false));
+
+        MockHttpServletRequestBuilder request = MockMvcRequestBuilders
+                .get(LOAN_API.concat("?customer=Bob&page=0&size=10&slice=true"))
+                .accept(MediaType.APPLICATION_JSON);
+
+        mockMvc.perform(request)
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("content", hasSize(1)))
+                .andExpect(jsonPath("hasNext").value(false))
+                .andExpect(jsonPath("totalElements").doesNotExist());
+    }
+
+    @SneakyThrows
+    @Test
+    @DisplayName("Deve filtrar emprestimos por cursor sem próxima página")
+    public void findFilterLoanAfterCursor() {
+        Loan loan = LoanServiceTest.createLoan();
+        loan.setId(3L);
+
+        BDDMockito.given(loanService.findByFilter(Mockito.any(LoanFilterDto.class), Mockito.any(KeysetScrollPosition.class), Mockito.eq(10)))
+                .willReturn(Window.from(List.of(loan), i -> ScrollPosition.keyset(), false));
+
+        MockHttpServletRequestBuilder request = MockMvcRequestBuilders
+                .get(LOAN_API.concat("?customer=Bob&after=Mg&size=10"))
+                .accept(MediaType.APPLICATION_JSON);
+
+        mockMvc.perform(request)
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("content", hasSize(1)))
+                .andExpect(jsonPath("content[0].id").value(3))
+                .andExpect(jsonPath("nextCursor").doesNotExist());
+    }
 }
@@ -0,0 +1,50 @@
+package org.apirest.libraryapi.benchmark;
+
+import org.apirest.libraryapi.LibraryApiApplication;
+import org.apirest.libraryapi.model.entity.Book;
+import org.apirest.libraryapi.service.BookService;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Starts the application without a web server on the default in-memory H2 for the benchmarks
+ * that go through the service layer, and seeds it with books.
+ */
+final class BenchmarkContext {
+
+    static final String[] WORDS = {"senhor", "anéis", "crônicas", "nárnia", "duna", "fundação", "guerra",
+            "paz", "cem", "anos", "solidão", "processo", "castelo", "metamorfose", "odisseia", "ilíada",
+            "memórias", "póstumas", "cortiço", "sertões"};
+
+    private BenchmarkContext(){
+    }
+
+    static ConfigurableApplicationContext start(){
+        return new SpringApplicationBuilder(LibraryApiApplication.class)
+                .web(WebApplicationType.NONE)
+                .run("--logging.file.name=",
+                        "--logging.level.root=warn",
+                        "--spring.boot.admin.client.enabled=false");
+    }
+
+    /**
+     * Imports {@code count} books whose titles combine two of {@link #WORDS} and a sequence
+     * number, so every word matches about a tenth of the catalogue.
+     */
+    static List<Book> seedBooks(BookService service, int count){
+        List<Book> books = new ArrayList<>(count);
+        for (int i = 0; i < count; i++){
+            books.add(Book.builder()
+                    .title(WORDS[i % WORDS.length] + " " + WORDS[(i / WORDS.length) % WORDS.length] + " " + i)
+                    .author("Autor " + (i % 1000))
+                    .isbn(String.format("978-%09d", i))
+                    .build());
+        }
+        service.importBooks(books);
+        return books;
+    }
+}
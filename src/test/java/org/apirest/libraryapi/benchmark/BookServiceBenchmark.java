@@ -0,0 +1,78 @@
+package org.apirest.libraryapi.benchmark;
+
+import org.apirest.libraryapi.model.entity.Book;
+import org.apirest.libraryapi.service.BookService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link BookService#findByFilter(Book, Pageable)} against {@value #BOOKS} seeded books, one
+ * benchmark per query path: a common word served from the search index, a term matching a
+ * handful of books, a sorted search that goes back to the database with the index candidates,
+ * and an ISBN filter that the index does not cover.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BookServiceBenchmark {
+
+    static final int BOOKS = 100_000;
+
+    private static final Pageable PAGE = PageRequest.of(0, 20);
+
+    private ConfigurableApplicationContext context;
+
+    private BookService service;
+
+    @Setup
+    public void setUp(){
+        context = BenchmarkContext.start();
+        service = context.getBean(BookService.class);
+        BenchmarkContext.seedBooks(service, BOOKS);
+    }
+
+    @TearDown
+    public void tearDown(){
+        context.close();
+    }
+
+    @Benchmark
+    public Page<Book> commonWord(){
+        return service.findByFilter(Book.builder().title("duna").build(), PAGE.withPage(3));
+    }
+
+    @Benchmark
+    public Page<Book> rareTerm(){
+        return service.findByFilter(Book.builder().title("odisseia cem 4").build(), PAGE);
+    }
+
+    @Benchmark
+    public Page<Book> sortedAuthor(){
+        return service.findByFilter(Book.builder().author("autor 99").build(),
+                PageRequest.of(0, 20, Sort.by("title")));
+    }
+
+    @Benchmark
+    public Page<Book> isbn(){
+        return service.findByFilter(Book.builder().isbn("978-000054321").build(), PAGE);
+    }
+}
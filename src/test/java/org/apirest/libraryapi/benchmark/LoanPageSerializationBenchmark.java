@@ -0,0 +1,72 @@
+package org.apirest.libraryapi.benchmark;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apirest.libraryapi.api.dto.BookDto;
+import org.apirest.libraryapi.api.dto.LoanDto;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JSON serialization of the {@code Page<LoanDto>} returned by {@code GET /api/loans}, with the
+ * object mapper configured the way Spring MVC configures it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoanPageSerializationBenchmark {
+
+    @Param({"20", "100"})
+    int pageSize;
+
+    private ObjectMapper objectMapper;
+
+    private Page<LoanDto> page;
+
+    @Setup
+    public void setUp(){
+        objectMapper = Jackson2ObjectMapperBuilder.json().build();
+        List<LoanDto> loans = new ArrayList<>(pageSize);
+        for (long i = 1; i <= pageSize; i++){
+            BookDto book = BookDto.builder()
+                    .id(i)
+                    .title("As Crônicas de Nárnia " + i)
+                    .author("C.S Lewis")
+                    .isbn(String.valueOf(4963 + i))
+                    .build();
+            loans.add(LoanDto.builder()
+                    .id(i)
+                    .isbn(book.getIsbn())
+                    .customer("Bob")
+                    .email("bob@gmail.com")
+                    .bookDto(book)
+                    .build());
+        }
+        page = new PageImpl<>(loans, PageRequest.of(0, pageSize), 10_000);
+    }
+
+    @Benchmark
+    public byte[] serialize() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(page);
+    }
+}
@@ -0,0 +1,80 @@
+package org.apirest.libraryapi.benchmark;
+
+import org.apirest.libraryapi.model.entity.Book;
+import org.apirest.libraryapi.model.entity.Loan;
+import org.apirest.libraryapi.service.BookService;
+import org.apirest.libraryapi.service.LoanService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loan checkout through {@link LoanService#save(Loan)}: one insert guarded by the active-loan
+ * unique constraint. Every invocation lends the next free book; all loans are returned again
+ * before each iteration so the books can be lent once more.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoanServiceBenchmark {
+
+    static final int BOOKS = 100_000;
+
+    private ConfigurableApplicationContext context;
+
+    private LoanService service;
+
+    private JdbcTemplate jdbcTemplate;
+
+    private List<Book> books;
+
+    private int next;
+
+    @Setup
+    public void setUp(){
+        context = BenchmarkContext.start();
+        service = context.getBean(LoanService.class);
+        jdbcTemplate = context.getBean(JdbcTemplate.class);
+        books = BenchmarkContext.seedBooks(context.getBean(BookService.class), BOOKS);
+    }
+
+    @Setup(Level.Iteration)
+    public void returnAll(){
+        jdbcTemplate.update("update loan set returned = true, active_book_id = null, open_due_date = null, version = version + 1 where active_book_id is not null");
+        next = 0;
+    }
+
+    @TearDown
+    public void tearDown(){
+        context.close();
+    }
+
+    @Benchmark
+    public Loan checkout(){
+        Book book = books.get(next++ % BOOKS);
+        return service.save(Loan.builder()
+                .book(book)
+                .customer("Bob")
+                .customerEmail("bob@gmail.com")
+                .loanDate(LocalDate.now())
+                .build());
+    }
+}
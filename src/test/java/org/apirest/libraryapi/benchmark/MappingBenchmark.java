@@ -0,0 +1,118 @@
+package org.apirest.libraryapi.benchmark;
+
+import org.apirest.libraryapi.api.dto.BookDto;
+import org.apirest.libraryapi.api.dto.LoanDto;
+import org.apirest.libraryapi.api.mapper.BookMapper;
+import org.apirest.libraryapi.api.mapper.LoanMapper;
+import org.apirest.libraryapi.model.entity.Book;
+import org.apirest.libraryapi.model.entity.Loan;
+import org.modelmapper.ModelMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-row cost of the DTO mapping done by the controllers: the reflective
+ * {@link ModelMapper} path they used before against {@link BookMapper}/{@link LoanMapper}.
+ * Each invocation maps one page of {@value #PAGE_SIZE} rows, so the reported score is per row.
+ * Run {@link #main(String[])} to get the scores together with allocation rates (gc profiler).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MappingBenchmark {
+
+    static final int PAGE_SIZE = 100;
+
+    private ModelMapper modelMapper;
+
+    private List<Book> books;
+
+    private List<Loan> loans;
+
+    @Setup
+    public void setUp(){
+        modelMapper = new ModelMapper();
+        books = new ArrayList<>(PAGE_SIZE);
+        loans = new ArrayList<>(PAGE_SIZE);
+        for (long i = 1; i <= PAGE_SIZE; i++){
+            Book book = Book.builder()
+                    .id(i)
+                    .title("As Crônicas de Nárnia " + i)
+                    .author("C.S Lewis")
+                    .isbn(String.valueOf(4963 + i))
+                    .build();
+            books.add(book);
+            loans.add(Loan.builder()
+                    .id(i)
+                    .customer("Bob")
+                    .customerEmail("bob@gmail.com")
+                    .book(book)
+                    .loanDate(LocalDate.now())
+                    .build());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PAGE_SIZE)
+    public void bookModelMapper(Blackhole blackhole){
+        for (Book book : books){
+            blackhole.consume(modelMapper.map(book, BookDto.class));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PAGE_SIZE)
+    public void bookMapper(Blackhole blackhole){
+        for (Book book : books){
+            blackhole.consume(BookMapper.toDto(book));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PAGE_SIZE)
+    public void loanModelMapper(Blackhole blackhole){
+        for (Loan loan : loans){
+            BookDto bookDto = modelMapper.map(loan.getBook(), BookDto.class);
+            LoanDto loanDto = modelMapper.map(loan, LoanDto.class);
+            loanDto.setBookDto(bookDto);
+            blackhole.consume(loanDto);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PAGE_SIZE)
+    public void loanMapper(Blackhole blackhole){
+        for (Loan loan : loans){
+            blackhole.consume(LoanMapper.toDto(loan));
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(MappingBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -0,0 +1,118 @@
+package org.apirest.libraryapi.benchmark;
+
+import org.apirest.libraryapi.LibraryApiApplication;
+import org.apirest.libraryapi.model.repository.BookRepository;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Load comparison between the platform-thread and the virtual-thread request handling modes
+ * ({@code spring.threads.virtual.enabled}). Each request waits on a slow downstream call
+ * (simulated with a sleep) and then runs one query through the Hikari pool, so the pool stays
+ * the real limit on concurrent JDBC work.
+ * <p>
+ * Not a JMH benchmark: it starts the application once per mode and prints throughput and the
+ * number of pinning reports. Run {@link #main(String[])} from the test classpath with optional
+ * arguments {@code clients seconds downstreamMillis} (defaults {@value #CLIENTS},
+ * {@value #SECONDS}, {@value #DOWNSTREAM_MILLIS}). Client and server share the machine, so keep
+ * the downstream slow enough that the 200 Tomcat platform threads are the first limit reached.
+ */
+public class VirtualThreadLoadBenchmark {
+
+    static final int CLIENTS = 500;
+
+    static final int SECONDS = 10;
+
+    static final long DOWNSTREAM_MILLIS = 250;
+
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : CLIENTS;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : SECONDS;
+        long downstreamMillis = args.length > 2 ? Long.parseLong(args[2]) : DOWNSTREAM_MILLIS;
+        for (boolean virtualThreads : new boolean[]{false, true}){
+            run(virtualThreads, clients, seconds, downstreamMillis);
+        }
+    }
+
+    private static void run(boolean virtualThreads, int clients, int seconds, long downstreamMillis) throws Exception {
+        SpringApplication application = new SpringApplication(LibraryApiApplication.class, SlowDownstreamController.class);
+        try (ConfigurableApplicationContext context = application.run(
+                "--server.port=0",
+                "--spring.threads.virtual.enabled=" + virtualThreads,
+                "--spring.boot.admin.client.enabled=false",
+                "--logging.file.name=",
+                "--logging.level.root=warn",
+                "--logging.level.org.apirest.libraryapi.config=warn")) {
+            int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+            URI uri = URI.create("http://localhost:" + port + "/bench/slow?millis=" + downstreamMillis);
+            HttpClient client = HttpClient.newBuilder().executor(Executors.newVirtualThreadPerTaskExecutor()).build();
+
+            load(client, uri, clients, 2);
+            Result result = load(client, uri, clients, seconds);
+            double pinned = context.getBean(io.micrometer.core.instrument.MeterRegistry.class)
+                    .counter("library.threads.pinned").count();
+            System.out.printf("%s threads, %d clients, %d ms downstream: %,.0f req/s, %d errors, mean latency %.1f ms, %.0f pinning reports%n",
+                    virtualThreads ? "virtual " : "platform", clients, downstreamMillis, result.completed() / (double) seconds,
+                    result.errors(), result.meanMillis(), pinned);
+        }
+    }
+
+    private static Result load(HttpClient client, URI uri, int clients, int seconds) {
+        AtomicLong completed = new AtomicLong();
+        AtomicLong errors = new AtomicLong();
+        AtomicLong nanos = new AtomicLong();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        HttpRequest request = HttpRequest.newBuilder(uri).timeout(Duration.ofSeconds(30)).build();
+        try (ExecutorService users = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < clients; i++){
+                users.execute(() -> {
+                    while (System.nanoTime() < deadline){
+                        long start = System.nanoTime();
+                        try {
+                            HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+                            (response.statusCode() == 200 ? completed : errors).incrementAndGet();
+                        } catch (Exception e){
+                            errors.incrementAndGet();
+                        }
+                        nanos.addAndGet(System.nanoTime() - start);
+                    }
+                });
+            }
+        }
+        long requests = Math.max(completed.get() + errors.get(), 1);
+        return new Result(completed.get(), errors.get(), nanos.get() / 1_000_000.0 / requests);
+    }
+
+    record Result(long completed, long errors, double meanMillis) {
+    }
+
+    @RestController
+    static class SlowDownstreamController {
+
+        private final BookRepository repository;
+
+        SlowDownstreamController(BookRepository repository){
+            this.repository = repository;
+        }
+
+        @GetMapping("/bench/slow")
+        public boolean slow(@RequestParam long millis) throws InterruptedException {
+            Thread.sleep(millis);
+            return repository.existsByIsbn("0");
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package org.apirest.libraryapi.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.SneakyThrows;
+import org.apirest.libraryapi.exception.BusinessException;
+import org.apirest.libraryapi.model.entity.Book;
+import org.apirest.libraryapi.model.repository.BookRepository;
+import org.apirest.libraryapi.service.BookService;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.actuate.observability.AutoConfigureObservability;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@ExtendWith(SpringExtension.class)
+@ActiveProfiles("test")
+@SpringBootTest
+@AutoConfigureMockMvc
+@AutoConfigureObservability
+public class MethodMetricsTest {
+
+    @Autowired
+    BookService bookService;
+
+    @Autowired
+    BookRepository repository;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    @Autowired
+    MockMvc mockMvc;
+
+    @AfterEach
+    public void tearDown(){
+        repository.deleteAll();
+    }
+
+    @Test
+    @DisplayName("Deve medir os métodos dos serviços e repositórios com percentis e linhas retornadas")
+    public void serviceAndRepositoryTimersTest(){
+        Book book = bookService.save(Book.builder().title("Duna").author("Frank Herbert").isbn("metrics-1").build());
+
+        bookService.getBookByIsbn("metrics-1");
+        repository.findAll();
+
+        Timer service = meterRegistry.get("library.method").tags("class", "BookServiceImpl", "method", "save").timer();
+        Assertions.assertThat(service.count()).isEqualTo(1);
+        Assertions.assertThat(service.takeSnapshot().percentileValues()).hasSize(3);
+        Assertions.assertThat(meterRegistry.get("library.method").tags("class", "BookRepository", "method", "saveAndFlush")
+                .timer().count()).isEqualTo(1);
+        Assertions.assertThat(meterRegistry.get("library.method.rows").tags("class", "BookRepository", "method", "findByIsbn")
+                .counter().count()).isEqualTo(1);
+        Assertions.assertThat(meterRegistry.get("library.method.rows").tags("class", "BookRepository", "method", "findAll")
+                .counter().count()).isEqualTo(1);
+        Assertions.assertThat(book.getId()).isNotNull();
+    }
+
+    @Test
+    @DisplayName("Deve contar as exceções lançadas por método")
+    public void errorCounterTest(){
+        bookService.save(Book.builder().title("Duna").author("Frank Herbert").isbn("metrics-2").build());
+
+        Assertions.assertThatThrownBy(() -> bookService.save(Book.builder().title("Duna").author("Frank Herbert").isbn("metrics-2").build()))
+                .isInstanceOf(BusinessException.class);
+
+        Assertions.assertThat(meterRegistry.get("library.method.errors")
+                .tags("class", "BookServiceImpl", "method", "save", "exception", "BusinessException")
+                .counter().count()).isEqualTo(1);
+    }
+
+    @SneakyThrows
+    @Test
+    @DisplayName("Deve expor os tempos dos métodos no formato do Prometheus")
+    public void prometheusEndpointTest(){
+        bookService.getBookById(-1L);
+
+        mockMvc.perform(MockMvcRequestBuilders.get("/actuator/prometheus"))
+                .andExpect(status().isOk())
+                .andExpect(content().string(containsString("library_method_seconds_bucket{class=\"BookRepository\",method=\"findById\"")))
+                .andExpect(content().string(containsString("library_method_seconds_count{class=\"BookServiceImpl\",method=\"getBookById\"}")));
+    }
+}
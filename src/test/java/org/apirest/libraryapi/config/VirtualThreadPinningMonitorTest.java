@@ -0,0 +1,47 @@
+package org.apirest.libraryapi.config;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class VirtualThreadPinningMonitorTest {
+
+    SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    VirtualThreadPinningMonitor monitor;
+
+    @AfterEach
+    public void tearDown(){
+        monitor.stop();
+    }
+
+    @Test
+    @DisplayName("Deve reportar uma virtual thread presa ao carrier dentro de um bloco synchronized")
+    public void reportPinnedThreadTest() throws InterruptedException {
+        monitor = new VirtualThreadPinningMonitor(meterRegistry, 10);
+        monitor.start();
+        Object lock = new Object();
+
+        Thread.ofVirtual().start(() -> {
+            synchronized (lock){
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e){
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }).join();
+
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (meterRegistry.counter("library.threads.pinned").count() == 0 && System.currentTimeMillis() < deadline){
+            Thread.sleep(50);
+        }
+        Assertions.assertThat(meterRegistry.counter("library.threads.pinned").count()).isEqualTo(1);
+        Assertions.assertThat(meterRegistry.timer("library.threads.pinned.time").totalTime(TimeUnit.MILLISECONDS))
+                .isGreaterThanOrEqualTo(40);
+    }
+}
@@ -8,9 +8,15 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
 import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.data.domain.Example;
+import org.springframework.data.domain.ExampleMatcher;
+import org.springframework.data.domain.ScrollPosition;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Window;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 
+import java.util.List;
 import java.util.Optional;
 
 @ExtendWith(SpringExtension.class)
@@ -90,4 +96,27 @@ public class BookRepositoryTest {
         Assertions.assertThat(foundBook).isNull();
 
     }
+
+    @Test
+    @DisplayName("Deve paginar livros por cursor a partir do último id")
+    public void scrollByExampleTest(){
+        List<Book> books = repository.saveAll(List.of(
+                Book.builder().title("Nárnia 1").author("C.S Lewis").isbn("1").build(),
+                Book.builder().title("Nárnia 2").author("C.S Lewis").isbn("2").build(),
+                Book.builder().title("Hobbit").author("J.R.R Tolkien").isbn("3").build(),
+                Book.builder().title("Nárnia 3").author("C.S Lewis").isbn("4").build()));
+        Example<Book> example = Example.of(Book.builder().author("lewis").build(), ExampleMatcher.matching()
+                .withIgnoreCase()
+                .withStringMatcher(ExampleMatcher.StringMatcher.CONTAINING));
+
+        Window<Book> first = repository.findBy(example, query -> query.sortBy(Sort.by("id")).limit(2)
+                .scroll(ScrollPosition.keyset()));
+        Window<Book> second = repository.findBy(example, query -> query.sortBy(Sort.by("id")).limit(2)
+                .scroll(first.positionAt(first.size() - 1)));
+
+        Assertions.assertThat(first.getContent()).containsExactly(books.get(0), books.get(1));
+        Assertions.assertThat(first.hasNext()).isTrue();
+        Assertions.assertThat(second.getContent()).containsExactly(books.get(3));
+        Assertions.assertThat(second.hasNext()).isFalse();
+    }
 }
@@ -3,6 +3,11 @@ package org.apirest.libraryapi.model.repository;
 import org.apirest.libraryapi.model.entity.Book;
 import org.apirest.libraryapi.model.entity.Loan;
 import org.assertj.core.api.Assertions;
+import org.hibernate.Hibernate;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.hibernate.stat.Statistics;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -11,18 +16,29 @@ import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
 import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.ScrollPosition;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Window;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.time.LocalDate;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Stream;
 
 import static org.apirest.libraryapi.model.repository.BookRepositoryTest.createNewBook;
 
 
 @ExtendWith(SpringExtension.class)
 @ActiveProfiles("test")
-@DataJpaTest
+@DataJpaTest(properties = {
+        "spring.jpa.properties.hibernate.generate_statistics=true",
+        "spring.jpa.properties.hibernate.session_factory.statement_inspector="
+                + "org.apirest.libraryapi.model.repository.LoanRepositoryTest$RecordingStatementInspector"
+})
 public class LoanRepositoryTest {
 
     @Autowired
@@ -43,6 +59,13 @@ public class LoanRepositoryTest {
         return loan;
     }
 
+    private Loan createAndPersistLoan(LocalDate loanDate, LocalDate dueDate, boolean returned){
+        Book book = entityManager.persist(Book.builder().title("As Crônicas de Nárnia").author("C.S Lewis")
+                .isbn("late-" + dueDate + "-" + returned).build());
+        return entityManager.persist(Loan.builder().book(book).customer("Bob")
+                .loanDate(loanDate).dueDate(dueDate).returned(returned).build());
+    }
+
     @Test
     @DisplayName("Deve verificar se um livro ja está emprestado")
     public void existsBookAlreadyLoaned(){
@@ -59,10 +82,10 @@ public class LoanRepositoryTest {
 
     @Test
     @DisplayName("Deve buscar empréstimo pelo isbn do livro ou customer")
-    public void findByBookIsbnOrCustomer() {
+    public void findFilteredByIsbnOrCustomerTest() {
         Loan loan = createAndPersistLoan(LocalDate.now());
 
-        Page<Loan> result = repository.findByBookIsbnOrCustomer("120", "Bob", PageRequest.of(0, 10));
+        Page<Loan> result = repository.findAll(LoanRepository.filteredBy("120", "Bob"), PageRequest.of(0, 10));
 
         Assertions.assertThat(result.getContent()).contains(loan);
         Assertions.assertThat(result.getContent()).hasSize(1);
@@ -72,22 +95,235 @@ public class LoanRepositoryTest {
     }
 
     @Test
-    @DisplayName("Deve obter empréstimos cujo a data está proximo ao vencimento")
-    public void findByLateLoansTest() {
-        Loan loan = createAndPersistLoan(LocalDate.now().minusDays(5));
+    @DisplayName("Deve obter os empréstimos em aberto que passaram do vencimento")
+    public void findOverdueOpenLoansTest() {
+        Loan loan = createAndPersistLoan(LocalDate.now().minusDays(5), LocalDate.now().minusDays(1), false);
 
-        List<Loan> result = repository.findByLateLoans(LocalDate.now().minusDays(4));
+        List<Loan> result = repository.findOverdueLoansInPartition(LocalDate.now(), loan.getSweepPartition(),
+                PageRequest.ofSize(10));
 
         Assertions.assertThat(result).hasSize(1).contains(loan);
     }
 
     @Test
-    @DisplayName("Deve retornar vazio quando os emprestimos não estiverem sido retornados")
-    public void findByLateNotReturnedLoansTest() {
-        Loan loan = createAndPersistLoan(LocalDate.now().minusDays(5));
+    @DisplayName("Deve ignorar empréstimos devolvidos ou ainda não vencidos")
+    public void ignoreReturnedOrNotDueLoansTest() {
+        createAndPersistLoan(LocalDate.now().minusDays(5), LocalDate.now().minusDays(1), true);
+        createAndPersistLoan(LocalDate.now().minusDays(5), LocalDate.now().plusDays(1), false);
+
+        for (int partition = 0; partition < Loan.SWEEP_PARTITIONS; partition++){
+            Assertions.assertThat(repository.findOverdueLoansInPartition(LocalDate.now(), partition, PageRequest.ofSize(10)))
+                    .isEmpty();
+        }
+    }
+
+    @Test
+    @DisplayName("Deve buscar empréstimos e seus livros em uma única consulta")
+    public void findFilteredByIsbnOrCustomerFetchesBookTest() {
+        Book book = entityManager.persist(Book.builder()
+                .title("As Crônicas de Nárnia")
+                .author("C.S Lewis")
+                .isbn("121")
+                .build());
+        entityManager.persist(Loan.builder().book(book).customer("Alice").loanDate(LocalDate.now()).returned(true).build());
+        entityManager.persist(Loan.builder().book(book).customer("Alice").loanDate(LocalDate.now()).build());
+        entityManager.flush();
+        entityManager.clear();
+        Statistics statistics = entityManager.getEntityManager().getEntityManagerFactory()
+                .unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+
+        Page<Loan> result = repository.findAll(LoanRepository.filteredBy("121", "Alice"), PageRequest.of(0, 1));
+
+        Assertions.assertThat(result.getContent()).hasSize(1);
+        Assertions.assertThat(result.getTotalElements()).isEqualTo(2);
+        Assertions.assertThat(Hibernate.isInitialized(result.getContent().get(0).getBook())).isTrue();
+        Assertions.assertThat(result.getContent().get(0).getBook().getTitle()).isEqualTo("As Crônicas de Nárnia");
+        Assertions.assertThat(statistics.getPrepareStatementCount()).isEqualTo(2);
+    }
+
+    @Test
+    @DisplayName("Deve filtrar empréstimos aplicando apenas os critérios informados")
+    public void filteredByTest() {
+        Book narnia = entityManager.persist(Book.builder().title("As Crônicas de Nárnia").author("C.S Lewis").isbn("125").build());
+        Book hobbit = entityManager.persist(Book.builder().title("O Hobbit").author("J.R.R Tolkien").isbn("126").build());
+        Loan alice = entityManager.persist(Loan.builder().book(narnia).customer("Alice").loanDate(LocalDate.now()).returned(true).build());
+        Loan bob = entityManager.persist(Loan.builder().book(narnia).customer("Bob").loanDate(LocalDate.now()).build());
+        Loan aliceHobbit = entityManager.persist(Loan.builder().book(hobbit).customer("Alice").loanDate(LocalDate.now()).build());
+        entityManager.flush();
+        entityManager.clear();
+        Sort byId = Sort.by("id");
+
+        Assertions.assertThat(repository.findAll(LoanRepository.filteredBy("125", null), byId))
+                .extracting(Loan::getId).containsExactly(alice.getId(), bob.getId());
+        Assertions.assertThat(repository.findAll(LoanRepository.filteredBy(null, "Alice"), byId))
+                .extracting(Loan::getId).containsExactly(alice.getId(), aliceHobbit.getId());
+        Assertions.assertThat(repository.findAll(LoanRepository.filteredBy("126", "Bob"), byId))
+                .extracting(Loan::getId).containsExactly(bob.getId(), aliceHobbit.getId());
+        Assertions.assertThat(repository.findAll(LoanRepository.filteredBy(null, null), byId)).hasSize(3);
+
+        Page<Loan> page = repository.findAll(LoanRepository.filteredBy("125", "Alice"), PageRequest.of(0, 2, byId));
+        Assertions.assertThat(page.getTotalElements()).isEqualTo(3);
+        Assertions.assertThat(Hibernate.isInitialized(page.getContent().get(0).getBook())).isTrue();
+
+        Window<Loan> first = repository.findBy(LoanRepository.filteredBy(null, "Alice"),
+                query -> query.sortBy(byId).limit(1).scroll(ScrollPosition.keyset()));
+        Window<Loan> next = repository.findBy(LoanRepository.filteredBy(null, "Alice"),
+                query -> query.sortBy(byId).limit(1).scroll(first.positionAt(0)));
+        Assertions.assertThat(first.getContent()).extracting(Loan::getId).containsExactly(alice.getId());
+        Assertions.assertThat(first.hasNext()).isTrue();
+        Assertions.assertThat(next.getContent()).extracting(Loan::getId).containsExactly(aliceHobbit.getId());
+        Assertions.assertThat(next.hasNext()).isFalse();
+    }
+
+    @Test
+    @DisplayName("Deve usar os índices de livro e cliente ao filtrar empréstimos")
+    public void filteredByUsesIndexesTest() {
+        Book book = entityManager.persist(Book.builder().title("As Crônicas de Nárnia").author("C.S Lewis").isbn("127").build());
+        entityManager.persist(Loan.builder().book(book).customer("Alice").loanDate(LocalDate.now()).build());
+        entityManager.flush();
+        RecordingStatementInspector.STATEMENTS.clear();
+
+        repository.findAll(LoanRepository.filteredBy("127", "Alice"));
+
+        String plan = explainLastStatement("127", "Alice");
+
+        // H2 may pick its own foreign key index on id_book instead of idx_loan_book_date: both are lookups
+        Assertions.assertThat(plan)
+                .contains("UNION")
+                .contains("UK_BOOK_ISBN")
+                .contains("IDX_LOAN_CUSTOMER: CUSTOMER = ")
+                .containsPattern("PRIMARY_KEY\\w*: ID IN\\(")
+                .containsPattern("_INDEX\\w*: ID_BOOK = |IDX_LOAN_BOOK_DATE: ID_BOOK = ")
+                .doesNotContain("TABLESCAN");
+    }
+
+    @Test
+    @DisplayName("Deve buscar apenas os empréstimos abertos vencidos pelo índice da data de devolução")
+    public void findOverdueLoansTest() {
+        LocalDate today = LocalDate.now();
+        Book book = entityManager.persist(Book.builder().title("As Crônicas de Nárnia").author("C.S Lewis").isbn("128").build());
+        Book other = entityManager.persist(Book.builder().title("O Hobbit").author("J.R.R Tolkien").isbn("129").build());
+        Loan overdue = entityManager.persist(Loan.builder().book(book).customer("Bob")
+                .loanDate(today.minusDays(5)).dueDate(today.minusDays(1)).build());
+        entityManager.persist(Loan.builder().book(book).customer("Alice")
+                .loanDate(today.minusDays(9)).dueDate(today.minusDays(5)).returned(true).build());
+        Loan open = entityManager.persist(Loan.builder().book(other).customer("Alice")
+                .loanDate(today).dueDate(today.plusDays(4)).build());
+        entityManager.flush();
+        RecordingStatementInspector.STATEMENTS.clear();
+
+        int partition = overdue.getSweepPartition();
+        List<Loan> result = repository.findOverdueLoansInPartition(today, partition, PageRequest.ofSize(10));
+
+        Assertions.assertThat(result).extracting(Loan::getId).containsExactly(overdue.getId());
+        Assertions.assertThat(partition).isEqualTo((int) (book.getId() % Loan.SWEEP_PARTITIONS));
+        // the partition and the due date bound both seek into the index, no other partition is read
+        Assertions.assertThat(explainLastStatement(partition, today, 0, 10))
+                .containsPattern("IDX_LOAN_SWEEP: SWEEP_PARTITION = \\?1\\s+AND OPEN_DUE_DATE <= \\?2");
+        Assertions.assertThat(repository.findOverdueLoansInPartitionAfter(today, partition, overdue.getOpenDueDate(),
+                overdue.getId(), PageRequest.ofSize(10))).isEmpty();
+        Assertions.assertThat(repository.findOverdueLoansInPartition(today, (partition + 1) % Loan.SWEEP_PARTITIONS,
+                PageRequest.ofSize(10))).isEmpty();
+        Assertions.assertThat(repository.findOverdueLoansByIds(List.of(overdue.getId(), open.getId()), today))
+                .extracting(Loan::getId).containsExactly(overdue.getId());
+        try (Stream<LoanRepository.OpenLoanDue> due = repository.streamOpenLoansDueFrom(today)) {
+            Assertions.assertThat(due.toList()).singleElement()
+                    .satisfies(loan -> Assertions.assertThat(loan.getId()).isEqualTo(open.getId()))
+                    .satisfies(loan -> Assertions.assertThat(loan.getDueDate()).isEqualTo(today.plusDays(4)));
+        }
+
+        repository.markReturned(List.of(overdue.getId()));
+        Assertions.assertThat(repository.findOverdueLoansInPartition(today, partition, PageRequest.ofSize(10))).isEmpty();
+    }
+
+    private String explainLastStatement(Object... parameters) {
+        String sql = RecordingStatementInspector.STATEMENTS.get(RecordingStatementInspector.STATEMENTS.size() - 1);
+        return entityManager.getEntityManager().unwrap(Session.class).doReturningWork(connection -> {
+            try (PreparedStatement explain = connection.prepareStatement("explain " + sql)) {
+                for (int i = 0; i < parameters.length; i++){
+                    explain.setObject(i + 1, parameters[i]);
+                }
+                try (ResultSet result = explain.executeQuery()) {
+                    result.next();
+                    return result.getString(1).toUpperCase();
+                }
+            }
+        });
+    }
+
+    public static class RecordingStatementInspector implements StatementInspector {
+
+        static final List<String> STATEMENTS = new CopyOnWriteArrayList<>();
+
+        @Override
+        public String inspect(String sql) {
+            STATEMENTS.add(sql);
+            return sql;
+        }
+    }
+
+    @Test
+    @DisplayName("Deve liberar o livro para um novo empréstimo após a devolução")
+    public void returnedLoanReleasesBookTest() {
+        Book book = entityManager.persist(Book.builder()
+                .title("As Crônicas de Nárnia")
+                .author("C.S Lewis")
+                .isbn("122")
+                .build());
+        Loan loan = entityManager.persist(Loan.builder().book(book).customer("Bob").loanDate(LocalDate.now()).build());
+        entityManager.flush();
+
+        Assertions.assertThat(repository.existsBookAlreadyLoaned(book)).isTrue();
+
+        loan.setReturned(true);
+        entityManager.flush();
+
+        Assertions.assertThat(repository.existsBookAlreadyLoaned(book)).isFalse();
+        Loan next = repository.saveAndFlush(Loan.builder().book(book).customer("Alice").loanDate(LocalDate.now()).build());
+        Assertions.assertThat(next.getActiveBookId()).isEqualTo(book.getId());
+        Assertions.assertThat(repository.existsBookAlreadyLoaned(book)).isTrue();
+    }
+
+    @Test
+    @DisplayName("Deve marcar empréstimos como devolvidos em lote liberando os livros")
+    public void markReturnedTest() {
+        Book book = entityManager.persist(Book.builder()
+                .title("As Crônicas de Nárnia")
+                .author("C.S Lewis")
+                .isbn("123")
+                .build());
+        Loan returned = entityManager.persist(Loan.builder().book(book).customer("Bob").loanDate(LocalDate.now()).returned(true).build());
+        Loan open = entityManager.persist(Loan.builder().book(book).customer("Alice").loanDate(LocalDate.now()).build());
+        entityManager.flush();
+        List<Long> ids = List.of(returned.getId(), open.getId(), -1L);
+
+        Assertions.assertThat(repository.lockOpenLoanIds(ids)).containsExactly(open.getId());
+        Assertions.assertThat(repository.markReturned(List.of(open.getId()))).isEqualTo(1);
+        Assertions.assertThat(repository.findById(open.getId()).get().getVersion()).isEqualTo(1L);
+        Assertions.assertThat(repository.findExistingIds(ids)).containsExactlyInAnyOrder(returned.getId(), open.getId());
+        Assertions.assertThat(repository.lockOpenLoanIds(ids)).isEmpty();
+        Assertions.assertThat(repository.existsBookAlreadyLoaned(book)).isFalse();
+    }
+
+    @Test
+    @DisplayName("Deve alterar a versão agregada dos empréstimos de um livro a cada mudança")
+    public void loansVersionTest() {
+        Book book = entityManager.persist(Book.builder()
+                .title("As Crônicas de Nárnia")
+                .author("C.S Lewis")
+                .isbn("124")
+                .build());
+        Loan loan = entityManager.persist(Loan.builder().book(book).customer("Bob").loanDate(LocalDate.now()).build());
+        entityManager.flush();
 
-        List<Loan> result = repository.findByLateLoans(LocalDate.now().minusDays(4));
+        LoanRepository.LoansVersion before = repository.findLoansVersion(book);
+        loan.setReturned(true);
+        entityManager.flush();
+        LoanRepository.LoansVersion after = repository.findLoansVersion(book);
 
-        Assertions.assertThat(result).isEmpty();
+        Assertions.assertThat(before.getCount()).isEqualTo(1);
+        Assertions.assertThat(before.getLastId()).isEqualTo(loan.getId());
+        Assertions.assertThat(after.getVersions()).isEqualTo(before.getVersions() + 1);
     }
 }
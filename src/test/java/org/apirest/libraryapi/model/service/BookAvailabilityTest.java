@@ -0,0 +1,200 @@
+package org.apirest.libraryapi.model.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apirest.libraryapi.model.entity.Book;
+import org.apirest.libraryapi.model.entity.BookAvailability;
+import org.apirest.libraryapi.model.entity.JobLease;
+import org.apirest.libraryapi.model.entity.Loan;
+import org.apirest.libraryapi.model.entity.LoanEvent;
+import org.apirest.libraryapi.model.repository.BookAvailabilityRepository;
+import org.apirest.libraryapi.model.repository.BookRepository;
+import org.apirest.libraryapi.model.repository.JobLeaseRepository;
+import org.apirest.libraryapi.model.repository.LoanEventRepository;
+import org.apirest.libraryapi.model.repository.LoanRepository;
+import org.apirest.libraryapi.service.OptimisticRetry;
+import org.apirest.libraryapi.service.impl.LoanServiceImpl;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+@ExtendWith(SpringExtension.class)
+@ActiveProfiles("test")
+@DataJpaTest
+@Import({LoanServiceImpl.class, OptimisticRetry.class, SimpleMeterRegistry.class})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+public class BookAvailabilityTest {
+
+    @Autowired
+    LoanServiceImpl loanService;
+
+    @Autowired
+    LoanRepository loanRepository;
+
+    @Autowired
+    BookRepository bookRepository;
+
+    @Autowired
+    BookAvailabilityRepository availabilityRepository;
+
+    @Autowired
+    LoanEventRepository eventRepository;
+
+    @Autowired
+    PlatformTransactionManager transactionManager;
+
+    @Autowired
+    JobLeaseRepository leaseRepository;
+
+    @AfterEach
+    public void tearDown(){
+        leaseRepository.deleteAll();
+        availabilityRepository.deleteAll();
+        eventRepository.deleteAll();
+        loanRepository.deleteAll();
+        bookRepository.deleteAll();
+    }
+
+    @Test
+    @DisplayName("Deve manter a disponibilidade do livro nos empréstimos e devoluções")
+    public void keepAvailabilityOnCheckoutAndReturnTest(){
+        Book book = bookRepository.save(Book.builder().title("O Hobbit").author("J.R.R Tolkien").isbn("av-1").build());
+        Book neverLent = bookRepository.save(Book.builder().title("Duna").author("Frank Herbert").isbn("av-2").build());
+
+        Loan first = loanService.save(loan(book));
+        assertAvailability(book, BookAvailability.Status.LOANED, first.getId(), 1);
+
+        loanService.returnLoan(first.getId(), true);
+        assertAvailability(book, BookAvailability.Status.AVAILABLE, null, 1);
+
+        loanService.returnLoan(first.getId(), false);
+        assertAvailability(book, BookAvailability.Status.LOANED, first.getId(), 1);
+
+        loanService.returnLoans(List.of(first.getId()));
+        assertAvailability(book, BookAvailability.Status.AVAILABLE, null, 1);
+
+        Loan second = loanService.save(loan(book));
+        assertAvailability(book, BookAvailability.Status.LOANED, second.getId(), 2);
+
+        Assertions.assertThat(loanService.getAvailability(List.of(book.getId(), neverLent.getId())))
+                .containsOnlyKeys(book.getId(), neverLent.getId())
+                .hasEntrySatisfying(neverLent.getId(), availability -> {
+                    Assertions.assertThat(availability.getStatus()).isEqualTo(BookAvailability.Status.AVAILABLE);
+                    Assertions.assertThat(availability.getBorrowCount()).isZero();
+                });
+        Assertions.assertThat(bookRepository.findIdsByIsbns(List.of("av-1", "av-2", "av-3")))
+                .extracting(BookRepository.BookIsbn::getIsbn, BookRepository.BookIsbn::getId)
+                .containsExactlyInAnyOrder(Assertions.tuple("av-1", book.getId()), Assertions.tuple("av-2", neverLent.getId()));
+    }
+
+    @Test
+    @DisplayName("Deve liberar o livro ao devolver um empréstimo gerenciado alterado antes do update")
+    public void returnManagedLoanTest(){
+        Book book = bookRepository.save(Book.builder().title("O Hobbit").author("J.R.R Tolkien").isbn("av-1").build());
+        Long id = loanService.save(loan(book)).getId();
+
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            Loan managed = loanRepository.findById(id).orElseThrow();
+            managed.setReturned(true);
+            loanService.update(managed);
+        });
+
+        assertAvailability(book, BookAvailability.Status.AVAILABLE, null, 1);
+        Assertions.assertThat(eventRepository.findAll()).extracting(LoanEvent::getType)
+                .containsExactlyInAnyOrder(LoanEvent.Type.CREATED, LoanEvent.Type.RETURNED);
+    }
+
+    @Test
+    @DisplayName("Deve mudar a versão da disponibilidade no primeiro empréstimo do livro")
+    public void changeVersionOnFirstCheckoutTest(){
+        Book book = bookRepository.save(Book.builder().title("O Hobbit").author("J.R.R Tolkien").isbn("av-1").build());
+        Long neverLent = loanService.getAvailability(book.getId()).getVersion();
+
+        loanService.save(loan(book));
+
+        BookAvailability lent = loanService.getAvailability(book.getId());
+        Assertions.assertThat(lent.getStatus()).isEqualTo(BookAvailability.Status.LOANED);
+        Assertions.assertThat(lent.getVersion()).isNotEqualTo(neverLent);
+        Assertions.assertThat(loanService.getAvailability(List.of(book.getId())).get(book.getId()).getVersion())
+                .isEqualTo(lent.getVersion());
+    }
+
+    @Test
+    @DisplayName("Deve reconstruir a disponibilidade a partir dos empréstimos existentes")
+    public void rebuildAvailabilityTest(){
+        Book lent = bookRepository.save(Book.builder().title("O Hobbit").author("J.R.R Tolkien").isbn("av-1").build());
+        Book returned = bookRepository.save(Book.builder().title("Duna").author("Frank Herbert").isbn("av-2").build());
+        loanService.returnLoans(List.of(loanService.save(loan(returned)).getId()));
+        loanService.returnLoans(List.of(loanService.save(loan(returned)).getId()));
+        Loan open = loanService.save(loan(lent));
+        availabilityRepository.deleteAll();
+
+        loanService.rebuildAvailability();
+
+        assertAvailability(lent, BookAvailability.Status.LOANED, open.getId(), 1);
+        assertAvailability(returned, BookAvailability.Status.AVAILABLE, null, 2);
+    }
+
+    @Test
+    @DisplayName("Deve reconstruir a disponibilidade apenas na instância que detém o lease")
+    public void rebuildAvailabilityLeaseTest(){
+        Book book = bookRepository.save(Book.builder().title("O Hobbit").author("J.R.R Tolkien").isbn("av-1").build());
+        Loan open = loanService.save(loan(book));
+        availabilityRepository.deleteAll();
+        leaseRepository.createIfAbsent(LoanServiceImpl.REBUILD_LEASE, LocalDate.EPOCH);
+        Instant now = Instant.now();
+        leaseRepository.acquire(LoanServiceImpl.REBUILD_LEASE, LocalDate.EPOCH, "other", now, now.plus(Duration.ofMinutes(10)));
+
+        loanService.rebuildAvailability();
+
+        Assertions.assertThat(availabilityRepository.count()).isZero();
+
+        JobLease lease = leaseRepository.findById(LoanServiceImpl.REBUILD_LEASE).orElseThrow();
+        lease.setLockedUntil(Instant.EPOCH);
+        leaseRepository.save(lease);
+        loanService.rebuildAvailability();
+        loanService.rebuildAvailability();
+
+        assertAvailability(book, BookAvailability.Status.LOANED, open.getId(), 1);
+    }
+
+    @Test
+    @DisplayName("Deve exportar os empréstimos, inclusive os sem livro")
+    public void exportLoansWithoutBookTest(){
+        Book book = bookRepository.save(Book.builder().title("O Hobbit").author("J.R.R Tolkien").isbn("av-1").build());
+        Loan lent = loanService.save(loan(book));
+        Loan withoutBook = loanService.save(loan(null));
+        List<Loan> exported = new ArrayList<>();
+
+        loanService.exportLoans(exported::add);
+
+        Assertions.assertThat(exported).extracting(Loan::getId).containsExactlyInAnyOrder(lent.getId(), withoutBook.getId());
+    }
+
+    private void assertAvailability(Book book, BookAvailability.Status status, Long currentLoanId, long borrowCount){
+        BookAvailability availability = loanService.getAvailability(book.getId());
+        Assertions.assertThat(availability.getStatus()).isEqualTo(status);
+        Assertions.assertThat(availability.getCurrentLoanId()).isEqualTo(currentLoanId);
+        Assertions.assertThat(availability.getBorrowCount()).isEqualTo(borrowCount);
+    }
+
+    private static Loan loan(Book book){
+        return Loan.builder().book(book).customer("Bob").loanDate(LocalDate.now()).build();
+    }
+}
@@ -0,0 +1,189 @@
+package org.apirest.libraryapi.model.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apirest.libraryapi.model.entity.Book;
+import org.apirest.libraryapi.model.repository.BookRepository;
+import org.apirest.libraryapi.service.BookService;
+import org.apirest.libraryapi.service.impl.BookServiceImpl;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.caffeine.CaffeineCache;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+@ExtendWith(SpringExtension.class)
+@ActiveProfiles("test")
+@SpringBootTest
+public class BookCacheTest {
+
+    @Autowired
+    BookService bookService;
+
+    @Autowired
+    BookRepository repository;
+
+    @Autowired
+    CacheManager cacheManager;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    @Autowired
+    PlatformTransactionManager transactionManager;
+
+    Book book;
+
+    @BeforeEach
+    public void setUp(){
+        book = repository.save(Book.builder()
+                .title("As Crônicas de Nárnia")
+                .author("C.S Lewis")
+                .isbn("cache-4963")
+                .build());
+    }
+
+    @AfterEach
+    public void tearDown(){
+        repository.deleteAll();
+        cacheManager.getCacheNames().forEach(name -> cacheManager.getCache(name).clear());
+    }
+
+    @Test
+    @DisplayName("Deve servir buscas repetidas por id e 'isbn' a partir do cache")
+    public void cachedLookupTest(){
+        long hits = nativeCache(BookServiceImpl.BOOKS_CACHE).stats().hitCount();
+        Optional<Book> first = bookService.getBookById(book.getId());
+        repository.deleteAll();
+        Optional<Book> second = bookService.getBookById(book.getId());
+        Optional<Book> missing = bookService.getBookByIsbn(book.getIsbn());
+
+        Assertions.assertThat(first).isPresent();
+        Assertions.assertThat(second).isPresent();
+        Assertions.assertThat(second.get().getTitle()).isEqualTo("As Crônicas de Nárnia");
+        Assertions.assertThat(missing).isEmpty();
+        Assertions.assertThat(nativeCache(BookServiceImpl.BOOKS_CACHE).stats().hitCount()).isEqualTo(hits + 1);
+        Assertions.assertThat(nativeCache(BookServiceImpl.BOOKS_BY_ISBN_CACHE).estimatedSize()).isZero();
+        Assertions.assertThat(meterRegistry.find("cache.gets")
+                .tags("cache", BookServiceImpl.BOOKS_CACHE, "result", "hit").functionCounter()).isNotNull();
+        Assertions.assertThat(meterRegistry.find("cache.evictions")
+                .tags("cache", BookServiceImpl.BOOKS_BY_ISBN_CACHE).functionCounter()).isNotNull();
+    }
+
+    @Test
+    @DisplayName("Deve invalidar o cache ao atualizar um livro")
+    public void updateEvictsCacheTest(){
+        bookService.getBookByIsbn(book.getIsbn());
+        Book cached = bookService.getBookById(book.getId()).orElseThrow();
+
+        cached.setTitle("O Leão, a Feiticeira e o Guarda-Roupa");
+        bookService.update(cached);
+
+        Assertions.assertThat(nativeCache(BookServiceImpl.BOOKS_CACHE).asMap()).doesNotContainKey(book.getId());
+        Assertions.assertThat(nativeCache(BookServiceImpl.BOOKS_BY_ISBN_CACHE).asMap()).doesNotContainKey(book.getIsbn());
+        Assertions.assertThat(bookService.getBookById(book.getId()).orElseThrow().getTitle())
+                .isEqualTo("O Leão, a Feiticeira e o Guarda-Roupa");
+    }
+
+    @Test
+    @DisplayName("Deve invalidar o cache ao deletar um livro")
+    public void deleteEvictsCacheTest(){
+        Book cached = bookService.getBookByIsbn(book.getIsbn()).orElseThrow();
+        bookService.getBookById(book.getId());
+
+        bookService.delete(cached);
+
+        Assertions.assertThat(bookService.getBookById(book.getId())).isEmpty();
+        Assertions.assertThat(bookService.getBookByIsbn(book.getIsbn())).isEmpty();
+    }
+
+    @Test
+    @DisplayName("Deve entregar cópias do livro em cache que não alteram o cache")
+    public void cachedCopyTest(){
+        Book first = bookService.getBookById(book.getId()).orElseThrow();
+        first.setTitle("O Leão, a Feiticeira e o Guarda-Roupa");
+
+        Assertions.assertThat(bookService.getBookById(book.getId()).orElseThrow().getTitle())
+                .isEqualTo("As Crônicas de Nárnia");
+    }
+
+    @Test
+    @DisplayName("Deve invalidar o cache só depois de confirmar a atualização na versão esperada")
+    public void updateEvictsCacheAfterCommitTest() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+                bookService.update(book.getId(), book.getVersion(),
+                        current -> current.setTitle("O Leão, a Feiticeira e o Guarda-Roupa"));
+                // a lookup from another request reads the row as last committed and caches it
+                Book read = join(executor.submit(() -> bookService.getBookById(book.getId()).orElseThrow()));
+                Assertions.assertThat(read.getTitle()).isEqualTo("As Crônicas de Nárnia");
+            });
+        } finally {
+            executor.shutdown();
+        }
+
+        Assertions.assertThat(nativeCache(BookServiceImpl.BOOKS_CACHE).asMap()).doesNotContainKey(book.getId());
+        Assertions.assertThat(bookService.getBookById(book.getId()).orElseThrow().getTitle())
+                .isEqualTo("O Leão, a Feiticeira e o Guarda-Roupa");
+    }
+
+    @Test
+    @DisplayName("Deve recarregar o livro em cache quando a versão da base é outra")
+    public void reloadStaleCachedBookTest(){
+        bookService.getBookById(book.getId());
+        Book current = repository.findById(book.getId()).orElseThrow();
+        current.setTitle("O Leão, a Feiticeira e o Guarda-Roupa");
+        Long version = repository.save(current).getVersion();
+
+        Book stale = bookService.getBookById(book.getId(), book.getVersion()).orElseThrow();
+        Book reloaded = bookService.getBookById(book.getId(), version).orElseThrow();
+
+        Assertions.assertThat(stale.getTitle()).isEqualTo("As Crônicas de Nárnia");
+        Assertions.assertThat(reloaded.getTitle()).isEqualTo("O Leão, a Feiticeira e o Guarda-Roupa");
+        Assertions.assertThat(reloaded.getVersion()).isEqualTo(version);
+        Assertions.assertThat(bookService.getBookById(book.getId()).orElseThrow().getVersion()).isEqualTo(version);
+    }
+
+    @Test
+    @DisplayName("Deve deletar um livro alterado depois de entrar no cache")
+    public void deleteStaleCachedBookTest(){
+        Book cached = bookService.getBookById(book.getId()).orElseThrow();
+        Book current = repository.findById(book.getId()).orElseThrow();
+        current.setTitle("O Leão, a Feiticeira e o Guarda-Roupa");
+        repository.save(current);
+
+        bookService.delete(cached);
+
+        Assertions.assertThat(repository.findById(book.getId())).isEmpty();
+        Assertions.assertThat(bookService.getBookById(book.getId())).isEmpty();
+    }
+
+    private static <T> T join(Future<T> future){
+        try {
+            return future.get(5, TimeUnit.SECONDS);
+        } catch (Exception e){
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Cache<Object, Object> nativeCache(String name){
+        return ((CaffeineCache) cacheManager.getCache(name)).getNativeCache();
+    }
+}
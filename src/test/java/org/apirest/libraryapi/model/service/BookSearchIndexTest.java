@@ -0,0 +1,129 @@
+package org.apirest.libraryapi.model.service;
+
+import org.apirest.libraryapi.model.entity.Book;
+import org.apirest.libraryapi.model.repository.BookRepository.BookText;
+import org.apirest.libraryapi.service.search.BookSearchIndex;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+public class BookSearchIndexTest {
+
+    BookSearchIndex index;
+
+    @BeforeEach
+    public void setUp(){
+        index = new BookSearchIndex();
+        index.index(Book.builder().id(1L).title("As Crônicas de Nárnia").author("C.S Lewis").build());
+        index.index(Book.builder().id(2L).title("O Senhor dos Anéis").author("J.R.R Tolkien").build());
+        index.index(Book.builder().id(3L).title("O Hobbit").author("J.R.R Tolkien").build());
+        index.markReady();
+    }
+
+    @Test
+    @DisplayName("Deve buscar livros por parte do título ignorando maiúsculas")
+    public void searchByTitleTest(){
+        Assertions.assertThat(index.search("NÁRNIA", null)).containsExactly(1L);
+        Assertions.assertThat(index.search("o h", null)).containsExactly(3L);
+    }
+
+    @Test
+    @DisplayName("Deve buscar livros combinando título e autor")
+    public void searchByTitleAndAuthorTest(){
+        Assertions.assertThat(index.search(null, "tolkien")).containsExactly(2L, 3L);
+        Assertions.assertThat(index.search("anéis", "tolkien")).containsExactly(2L);
+        Assertions.assertThat(index.search("anéis", "lewis")).isEmpty();
+    }
+
+    @Test
+    @DisplayName("Deve buscar termos menores que um trigrama")
+    public void searchShortTermTest(){
+        Assertions.assertThat(index.search("o", null)).containsExactly(2L, 3L);
+        Assertions.assertThat(index.search("hob", "j.")).containsExactly(3L);
+    }
+
+    @Test
+    @DisplayName("Deve refletir atualizações e remoções no índice")
+    public void updateAndRemoveTest(){
+        index.index(Book.builder().id(3L).title("O Silmarillion").author("J.R.R Tolkien").build());
+        index.remove(2L);
+
+        Assertions.assertThat(index.search("hobbit", null)).isEmpty();
+        Assertions.assertThat(index.search("silma", null)).containsExactly(3L);
+        Assertions.assertThat(index.search(null, "tolkien")).containsExactly(3L);
+        Assertions.assertThat(index.size()).isEqualTo(2);
+    }
+
+    @Test
+    @DisplayName("Deve aplicar um lote de livros alterados e removidos")
+    public void applyTest(){
+        index.apply(List.of(text(3L, "O Silmarillion", "J.R.R Tolkien"), text(4L, "Duna", "Frank Herbert")), List.of(1L));
+
+        Assertions.assertThat(index.search("nárnia", null)).isEmpty();
+        Assertions.assertThat(index.search("silma", null)).containsExactly(3L);
+        Assertions.assertThat(index.search("duna", null)).containsExactly(4L);
+        Assertions.assertThat(index.size()).isEqualTo(3);
+    }
+
+    @Test
+    @DisplayName("Deve reconciliar o índice com os livros lidos da base e remover os ausentes")
+    public void reconcileTest(){
+        index.beginReconcile();
+        index.reconcile(List.of(text(1L, "As Crônicas de Nárnia", "C.S Lewis"), text(3L, "O Silmarillion", "J.R.R Tolkien"),
+                text(4L, "Duna", "Frank Herbert")));
+        index.endReconcile(new long[]{1L, 3L, 4L});
+
+        Assertions.assertThat(index.search(null, "tolkien")).containsExactly(3L);
+        Assertions.assertThat(index.search("duna", null)).containsExactly(4L);
+        Assertions.assertThat(index.size()).isEqualTo(3);
+    }
+
+    @Test
+    @DisplayName("Deve manter as alterações feitas durante a reconciliação do índice")
+    public void reconcileKeepsOtherChangesTest(){
+        index.beginReconcile();
+        index.reconcile(List.of(text(1L, "As Crônicas de Nárnia", "C.S Lewis")));
+        index.remove(1L);
+        index.reconcile(List.of(text(2L, "O Senhor dos Anéis", "J.R.R Tolkien")));
+        index.index(Book.builder().id(4L).title("Duna").author("Frank Herbert").build());
+        index.apply(List.of(text(5L, "Fundação", "Isaac Asimov")), List.of());
+        index.reconcile(List.of(text(1L, "As Crônicas de Nárnia", "C.S Lewis")));
+        index.endReconcile(new long[]{1L, 2L});
+
+        Assertions.assertThat(index.search("nárnia", null)).isEmpty();
+        Assertions.assertThat(index.search("duna", null)).containsExactly(4L);
+        Assertions.assertThat(index.search("fundação", null)).containsExactly(5L);
+        Assertions.assertThat(index.search(null, "tolkien")).containsExactly(2L);
+    }
+
+    @Test
+    @DisplayName("Não deve remover livros quando a reconciliação do índice falha")
+    public void failedReconcileTest(){
+        index.beginReconcile();
+        index.reconcile(List.of(text(1L, "As Crônicas de Nárnia", "C.S Lewis")));
+        index.endReconcile(null);
+
+        Assertions.assertThat(index.size()).isEqualTo(3);
+    }
+
+    @Test
+    @DisplayName("Não deve responder buscas antes de estar pronto")
+    public void notReadyTest(){
+        BookSearchIndex empty = new BookSearchIndex();
+
+        Assertions.assertThat(empty.search("nárnia", null)).isNull();
+        Assertions.assertThat(index.search(null, " ")).isNotNull();
+        Assertions.assertThat(index.search(null, null)).isNull();
+    }
+
+    private static BookText text(Long id, String title, String author){
+        return new BookText() {
+            public Long getId() { return id; }
+            public String getTitle() { return title; }
+            public String getAuthor() { return author; }
+        };
+    }
+}
@@ -0,0 +1,125 @@
+package org.apirest.libraryapi.model.service;
+
+import org.apirest.libraryapi.model.entity.Book;
+import org.apirest.libraryapi.model.entity.BookChange;
+import org.apirest.libraryapi.model.repository.BookChangeRepository;
+import org.apirest.libraryapi.model.repository.BookRepository;
+import org.apirest.libraryapi.service.search.BookSearchIndex;
+import org.apirest.libraryapi.service.search.BookSearchRefresher;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.Timestamp;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+
+@ExtendWith(SpringExtension.class)
+@ActiveProfiles("test")
+@DataJpaTest
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+public class BookSearchRefresherTest {
+
+    @Autowired
+    BookRepository bookRepository;
+
+    @Autowired
+    BookChangeRepository changeRepository;
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    BookSearchIndex index;
+
+    BookSearchRefresher refresher;
+
+    @BeforeEach
+    public void setUp(){
+        index = new BookSearchIndex();
+        refresher = new BookSearchRefresher(bookRepository, changeRepository, index, Duration.ofHours(24),
+                Clock.systemDefaultZone());
+    }
+
+    @AfterEach
+    public void tearDown(){
+        changeRepository.deleteAll();
+        bookRepository.deleteAll();
+    }
+
+    @Test
+    @DisplayName("Deve aplicar no índice os livros salvos, alterados e deletados por outras instâncias")
+    public void refreshAppliesChangesTest(){
+        Book narnia = bookRepository.save(Book.builder().title("As Crônicas de Nárnia").author("C.S Lewis").isbn("refresh-1").build());
+        refresher.build();
+
+        Book hobbit = bookRepository.save(Book.builder().title("O Hobbit").author("J.R.R Tolkien").isbn("refresh-2").build());
+        changed(hobbit);
+        narnia.setTitle("O Sobrinho do Mago");
+        changed(bookRepository.save(narnia));
+        refresher.refresh();
+
+        Assertions.assertThat(index.search("hobbit", null)).containsExactly(hobbit.getId());
+        Assertions.assertThat(index.search("mago", null)).containsExactly(narnia.getId());
+        Assertions.assertThat(index.search("nárnia", null)).isEmpty();
+
+        bookRepository.delete(hobbit);
+        changed(hobbit);
+        refresher.refresh();
+
+        Assertions.assertThat(index.search(null, "tolkien")).isEmpty();
+        Assertions.assertThat(index.size()).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("Deve aplicar as marcas de alteração confirmadas depois de marcas mais novas")
+    public void refreshAppliesLateChangesTest(){
+        refresher.build();
+        Book hobbit = bookRepository.save(Book.builder().title("O Hobbit").author("J.R.R Tolkien").isbn("refresh-3").build());
+        Book lewis = bookRepository.save(Book.builder().title("As Crônicas de Nárnia").author("C.S Lewis").isbn("refresh-4").build());
+        long late = changed(hobbit).getId();
+        changeRepository.deleteById(late);
+        changed(lewis);
+        refresher.refresh();
+
+        Assertions.assertThat(index.search("hobbit", null)).isEmpty();
+
+        jdbcTemplate.update("insert into book_change (id, book_id, changed_at) values (?, ?, ?)",
+                late, hobbit.getId(), Timestamp.from(Instant.now()));
+        refresher.refresh();
+
+        Assertions.assertThat(index.search("hobbit", null)).containsExactly(hobbit.getId());
+        Assertions.assertThat(index.search("nárnia", null)).containsExactly(lewis.getId());
+    }
+
+    @Test
+    @DisplayName("Deve reconciliar o índice com a tabela e remover marcas antigas")
+    public void reconcileTest(){
+        Book hobbit = bookRepository.save(Book.builder().title("O Hobbit").author("J.R.R Tolkien").isbn("refresh-5").build());
+        Book lewis = bookRepository.save(Book.builder().title("As Crônicas de Nárnia").author("C.S Lewis").isbn("refresh-6").build());
+        refresher.build();
+        changeRepository.save(BookChange.builder().bookId(lewis.getId()).changedAt(Instant.now().minus(Duration.ofDays(2))).build());
+        changed(hobbit);
+        bookRepository.delete(lewis);
+
+        refresher.reconcile();
+
+        Assertions.assertThat(index.search("nárnia", null)).isEmpty();
+        Assertions.assertThat(index.search("hobbit", null)).containsExactly(hobbit.getId());
+        Assertions.assertThat(changeRepository.findAll()).extracting(BookChange::getBookId).containsExactly(hobbit.getId());
+    }
+
+    private BookChange changed(Book book){
+        return changeRepository.save(BookChange.of(book.getId()));
+    }
+}
@@ -1,11 +1,17 @@
 package org.apirest.libraryapi.model.service;
 
+import jakarta.persistence.EntityManager;
+import org.apirest.libraryapi.api.dto.BookBatchErrorDto;
 import org.apirest.libraryapi.exception.BusinessException;
 import org.apirest.libraryapi.model.entity.Book;
+import org.apirest.libraryapi.model.repository.BookChangeRepository;
 import org.apirest.libraryapi.model.repository.BookRepository;
+import org.apirest.libraryapi.model.repository.BookRepository.BookIsbn;
 import org.apirest.libraryapi.service.BookService;
 import org.apirest.libraryapi.service.impl.BookServiceImpl;
+import org.apirest.libraryapi.service.search.BookSearchIndex;
 import org.assertj.core.api.Assertions;
+import org.hibernate.exception.ConstraintViolationException;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
@@ -13,15 +19,25 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Mockito;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.data.domain.Example;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.ScrollPosition;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.transaction.PlatformTransactionManager;
 
+import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
@@ -33,20 +49,23 @@ public class BookServiceTest {
 
     BookService service;
 
+    BookSearchIndex searchIndex;
+
     @MockBean
     BookRepository repository;
 
     @BeforeEach
     public void setUp(){
-        this.service = new BookServiceImpl(repository);
+        this.searchIndex = new BookSearchIndex();
+        this.service = new BookServiceImpl(repository, Mockito.mock(BookChangeRepository.class), searchIndex,
+                Mockito.mock(PlatformTransactionManager.class), new ConcurrentMapCacheManager(), Mockito.mock(EntityManager.class));
     }
 
     @Test
     @DisplayName("Deve salvar um livro")
     public void saveBookTest(){
         Book book = createValidBook();
-        Mockito.when(repository.existsByIsbn(Mockito.anyString())).thenReturn(false);
-        Mockito.when(repository.save(book)).thenReturn(
+        Mockito.when(repository.saveAndFlush(book)).thenReturn(
                 Book.builder()
                         .id(1L)
                         .title("As Crônicas de Nárnia")
@@ -75,7 +94,7 @@ public class BookServiceTest {
     @DisplayName("Deve lançar um erro ao tentar cadastrar um livro com 'isbn' duplicado")
     public void tryToSaveBookWithDuplicatedIsbnTest(){
         Book book = createValidBook();
-        Mockito.when(repository.existsByIsbn(Mockito.anyString())).thenReturn(true);
+        Mockito.when(repository.saveAndFlush(book)).thenThrow(violationOf("PUBLIC.UK_BOOK_ISBN_INDEX_2"));
 
         Throwable ex = Assertions.catchThrowable(()-> service.save(book));
 
@@ -83,7 +102,62 @@ public class BookServiceTest {
                 .isInstanceOf(BusinessException.class)
                 .hasMessage("Livro com 'isbn' já cadastrado");
 
-        Mockito.verify(repository, Mockito.never()).save(book);
+        Mockito.verify(repository, Mockito.never()).existsByIsbn(Mockito.anyString());
+    }
+
+    @Test
+    @DisplayName("Deve propagar violações de integridade que não sejam de 'isbn' duplicado")
+    public void saveBookOtherViolationTest(){
+        Book book = createValidBook();
+        DataIntegrityViolationException violation = violationOf("PUBLIC.CONSTRAINT_1F");
+        Mockito.when(repository.saveAndFlush(book)).thenThrow(violation);
+
+        Throwable ex = Assertions.catchThrowable(()-> service.save(book));
+
+        Assertions.assertThat(ex).isSameAs(violation);
+    }
+
+    static DataIntegrityViolationException violationOf(String constraintName){
+        return new DataIntegrityViolationException("could not execute statement",
+                new ConstraintViolationException("could not execute statement", new SQLException(), constraintName));
+    }
+
+    @Test
+    @DisplayName("Deve importar livros em lote ignorando 'isbn' repetido ou já cadastrado")
+    public void importBooksTest(){
+        List<Book> books = List.of(
+                Book.builder().title("Duna").author("Frank Herbert").isbn("001").build(),
+                Book.builder().title("Neuromancer").author("William Gibson").isbn("002").build(),
+                Book.builder().title("Duna Messias").author("Frank Herbert").isbn("001").build(),
+                Book.builder().title("Fundação").author("Isaac Asimov").isbn("003").build()
+        );
+        Mockito.when(repository.findExistingIsbns(Mockito.anyCollection())).thenReturn(java.util.Set.of("002"));
+
+        List<BookBatchErrorDto> errors = service.importBooks(books);
+
+        Assertions.assertThat(errors).extracting(BookBatchErrorDto::getIndex).containsExactly(1, 2);
+        Assertions.assertThat(errors.get(0).getErrors()).containsExactly("Livro com 'isbn' já cadastrado");
+        Mockito.verify(repository).saveAll(List.of(books.get(0), books.get(3)));
+        Mockito.verify(repository, Mockito.never()).saveAndFlush(Mockito.any(Book.class));
+    }
+
+    @Test
+    @DisplayName("Deve obter os ids dos livros pelos isbns em consultas limitadas")
+    public void getBookIdsByIsbnTest(){
+        List<String> isbns = new ArrayList<>();
+        for (int i = 0; i < 1500; i++){
+            isbns.add("isbn-" + i);
+        }
+        isbns.add("isbn-0");
+        Mockito.when(repository.findIdsByIsbns(Mockito.anyCollection())).thenReturn(List.of());
+        Mockito.when(repository.findIdsByIsbns(Mockito.argThat(chunk -> chunk.contains("isbn-0"))))
+                .thenReturn(List.of(bookIsbn("isbn-0", 7L)));
+
+        Map<String, Long> ids = service.getBookIdsByIsbn(isbns);
+
+        Assertions.assertThat(ids).containsExactly(Map.entry("isbn-0", 7L));
+        Mockito.verify(repository).findIdsByIsbns(isbns.subList(0, 1000));
+        Mockito.verify(repository).findIdsByIsbns(isbns.subList(1000, 1500));
     }
 
     @Test
@@ -168,6 +242,47 @@ public class BookServiceTest {
         Mockito.verify(repository, Mockito.never()).delete(book);
     }
 
+    @Test
+    @DisplayName("Deve atualizar um livro na versão esperada")
+    public void updateBookExpectedVersionTest(){
+        searchIndex.markReady();
+        Mockito.when(repository.findById(1L)).thenReturn(Optional.of(Book.builder()
+                .id(1L).version(3L).title("As Crônicas de Nárnia").author("C.S Lewis").isbn("4963").build()));
+        Mockito.when(repository.saveAndFlush(Mockito.any(Book.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        Optional<Book> updated = service.update(1L, 3L, book -> book.setTitle("Novo título"));
+
+        Assertions.assertThat(updated).isPresent();
+        Assertions.assertThat(updated.get().getTitle()).isEqualTo("Novo título");
+        Assertions.assertThat(searchIndex.search("novo", null)).containsExactly(1L);
+    }
+
+    @Test
+    @DisplayName("Deve recusar a atualização de um livro alterado depois da versão esperada")
+    public void updateBookStaleVersionTest(){
+        Mockito.when(repository.findById(1L)).thenReturn(Optional.of(Book.builder()
+                .id(1L).version(4L).title("As Crônicas de Nárnia").author("C.S Lewis").isbn("4963").build()));
+
+        assertThrows(ObjectOptimisticLockingFailureException.class,
+                () -> service.update(1L, 3L, book -> book.setTitle("Novo título")));
+
+        Mockito.verify(repository, Mockito.never()).saveAndFlush(Mockito.any(Book.class));
+    }
+
+    @Test
+    @DisplayName("Deve propagar o conflito de versão sem reaplicar a atualização")
+    public void updateBookConflictTest(){
+        Mockito.when(repository.findById(1L)).thenReturn(Optional.of(Book.builder()
+                .id(1L).version(3L).title("As Crônicas de Nárnia").author("C.S Lewis").isbn("4963").build()));
+        Mockito.when(repository.saveAndFlush(Mockito.any(Book.class)))
+                .thenThrow(new ObjectOptimisticLockingFailureException(Book.class, 1L));
+
+        assertThrows(ObjectOptimisticLockingFailureException.class,
+                () -> service.update(1L, null, book -> book.setTitle("Novo título")));
+
+        Mockito.verify(repository, Mockito.times(1)).saveAndFlush(Mockito.any(Book.class));
+    }
+
     @Test
     @DisplayName("Deve filtrar um livro pela propriedade")
     public void filterBookTest(){
@@ -206,4 +321,92 @@ public class BookServiceTest {
 
         Mockito.verify(repository, Mockito.times(1)).findByIsbn(isbn);
     }
+
+    @Test
+    @DisplayName("Deve filtrar livros pelo índice de busca carregando apenas a página")
+    public void filterBookByIndexTest(){
+        Book narnia = createValidBook();
+        narnia.setId(1L);
+        Book hobbit = Book.builder().id(2L).title("O Hobbit").author("J.R.R Tolkien").isbn("5000").build();
+        Book narniaTwo = Book.builder().id(3L).title("Nárnia: O Leão").author("C.S Lewis").isbn("5001").build();
+        searchIndex.index(narnia);
+        searchIndex.index(hobbit);
+        searchIndex.index(narniaTwo);
+        searchIndex.markReady();
+        Mockito.when(repository.findAllById(List.of(3L))).thenReturn(List.of(narniaTwo));
+
+        Page<Book> result = service.findByFilter(Book.builder().author("lewis").build(), PageRequest.of(1, 1));
+
+        Assertions.assertThat(result.getContent()).containsExactly(narniaTwo);
+        Assertions.assertThat(result.getTotalElements()).isEqualTo(2);
+        Mockito.verify(repository, Mockito.never()).findAll(Mockito.any(Example.class), Mockito.any(PageRequest.class));
+    }
+
+    @Test
+    @DisplayName("Deve aplicar o prazo de empréstimo do filtro junto ao índice de busca")
+    @SuppressWarnings("unchecked")
+    public void filterBookByIndexAndLoanDaysTest(){
+        Book narnia = createValidBook();
+        narnia.setId(1L);
+        searchIndex.index(narnia);
+        searchIndex.markReady();
+        Book filter = Book.builder().author("lewis").loanDays(7).build();
+        PageRequest page = PageRequest.of(0, 10);
+        Mockito.when(repository.findAll(Mockito.any(Specification.class), Mockito.eq(page))).thenReturn(Page.empty(page));
+
+        service.findByFilter(filter, page);
+        service.findByFilter(filter, ScrollPosition.keyset(), 10);
+
+        Mockito.verify(repository).findAll(Mockito.any(Specification.class), Mockito.eq(page));
+        Mockito.verify(repository).findBy(Mockito.<Example<Book>>argThat(example -> example.getProbe().getLoanDays() == 7),
+                Mockito.any());
+        Mockito.verify(repository, Mockito.never()).findAllById(Mockito.any());
+    }
+
+    @Test
+    @DisplayName("Deve filtrar um slice de livros pelo índice de busca sem contar o total")
+    public void filterBookSliceByIndexTest(){
+        Book narnia = createValidBook();
+        narnia.setId(1L);
+        Book narniaTwo = Book.builder().id(3L).title("Nárnia: O Leão").author("C.S Lewis").isbn("5001").build();
+        searchIndex.index(narnia);
+        searchIndex.index(narniaTwo);
+        searchIndex.markReady();
+        Mockito.when(repository.findAllById(List.of(1L))).thenReturn(List.of(narnia));
+
+        Slice<Book> result = service.findSliceByFilter(Book.builder().author("lewis").build(), PageRequest.of(0, 1));
+
+        Assertions.assertThat(result.getContent()).containsExactly(narnia);
+        Assertions.assertThat(result.hasNext()).isTrue();
+        Mockito.verify(repository, Mockito.never()).count(Mockito.any(Example.class));
+    }
+
+    @Test
+    @DisplayName("Deve remover do índice de busca um livro deletado")
+    public void deleteBookRemovesFromIndexTest(){
+        Book book = createValidBook();
+        book.setId(1L);
+        searchIndex.index(book);
+        searchIndex.markReady();
+
+        service.delete(book);
+
+        Page<Book> result = service.findByFilter(Book.builder().title("nárnia").build(), PageRequest.of(0, 10));
+        Assertions.assertThat(result.getContent()).isEmpty();
+        Mockito.verify(repository, Mockito.never()).findAllById(Mockito.any());
+    }
+
+    private static BookIsbn bookIsbn(String isbn, Long id){
+        return new BookIsbn() {
+            @Override
+            public String getIsbn() {
+                return isbn;
+            }
+
+            @Override
+            public Long getId() {
+                return id;
+            }
+        };
+    }
 }
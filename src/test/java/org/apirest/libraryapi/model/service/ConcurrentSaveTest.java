@@ -0,0 +1,160 @@
+package org.apirest.libraryapi.model.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apirest.libraryapi.exception.BusinessException;
+import org.apirest.libraryapi.model.entity.Book;
+import org.apirest.libraryapi.model.entity.Loan;
+import org.apirest.libraryapi.model.repository.BookRepository;
+import org.apirest.libraryapi.model.repository.LoanRepository;
+import org.apirest.libraryapi.service.BookService;
+import org.apirest.libraryapi.service.LoanService;
+import org.apirest.libraryapi.service.OptimisticRetry;
+import org.apirest.libraryapi.service.impl.BookServiceImpl;
+import org.apirest.libraryapi.service.impl.LoanServiceImpl;
+import org.apirest.libraryapi.service.search.BookSearchIndex;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+@ExtendWith(SpringExtension.class)
+@ActiveProfiles("test")
+@DataJpaTest
+@Import({BookServiceImpl.class, BookSearchIndex.class, LoanServiceImpl.class, OptimisticRetry.class,
+        SimpleMeterRegistry.class})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+public class ConcurrentSaveTest {
+
+    static final int THREADS = 8;
+
+    @Autowired
+    BookService bookService;
+
+    @Autowired
+    BookRepository bookRepository;
+
+    @Autowired
+    LoanService loanService;
+
+    @Autowired
+    LoanRepository loanRepository;
+
+    @AfterEach
+    public void tearDown(){
+        loanRepository.deleteAll();
+        bookRepository.deleteAll();
+    }
+
+    @Test
+    @DisplayName("Deve cadastrar apenas um livro quando o mesmo 'isbn' é enviado em paralelo")
+    public void concurrentSaveBookWithSameIsbnTest() throws Exception {
+        List<Boolean> results = runConcurrently(() -> {
+            try {
+                bookService.save(Book.builder()
+                        .title("As Crônicas de Nárnia")
+                        .author("C.S Lewis")
+                        .isbn("4963")
+                        .build());
+                return true;
+            } catch (BusinessException e){
+                return false;
+            }
+        });
+
+        Assertions.assertThat(results).containsOnlyOnce(true);
+        Assertions.assertThat(bookRepository.findAll())
+                .filteredOn(book -> book.getIsbn().equals("4963"))
+                .hasSize(1);
+    }
+
+    @Test
+    @DisplayName("Deve emprestar o livro apenas uma vez quando há empréstimos em paralelo")
+    public void concurrentLoanOfSameBookTest() throws Exception {
+        Book book = bookRepository.save(Book.builder()
+                .title("As Crônicas de Nárnia")
+                .author("C.S Lewis")
+                .isbn("4963")
+                .build());
+
+        List<Boolean> results = runConcurrently(() -> {
+            try {
+                loanService.save(Loan.builder()
+                        .book(book)
+                        .customer("Bob")
+                        .loanDate(LocalDate.now())
+                        .build());
+                return true;
+            } catch (BusinessException e){
+                return false;
+            }
+        });
+
+        Assertions.assertThat(results).containsOnlyOnce(true);
+        Assertions.assertThat(loanRepository.existsBookAlreadyLoaned(book)).isTrue();
+        Assertions.assertThat(loanRepository.count()).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("Deve aplicar apenas uma das atualizações paralelas feitas sobre a mesma versão do livro")
+    public void concurrentUpdateOfSameBookTest() throws Exception {
+        Book book = bookRepository.save(Book.builder()
+                .title("As Crônicas de Nárnia")
+                .author("C.S Lewis")
+                .isbn("4963")
+                .build());
+
+        List<Boolean> results = runConcurrently(() -> {
+            try {
+                return bookService.update(book.getId(), book.getVersion(), current -> current.setTitle(current.getTitle() + "!"))
+                        .isPresent();
+            } catch (OptimisticLockingFailureException e){
+                return false;
+            }
+        });
+
+        Book updated = bookRepository.findById(book.getId()).orElseThrow();
+        Assertions.assertThat(results).containsOnlyOnce(true);
+        Assertions.assertThat(updated.getTitle()).isEqualTo("As Crônicas de Nárnia!");
+        Assertions.assertThat(updated.getVersion()).isEqualTo(book.getVersion() + 1);
+    }
+
+    static <T> List<T> runConcurrently(Callable<T> task) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<T>> futures = new ArrayList<>();
+            for (int i = 0; i < THREADS; i++){
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    return task.call();
+                }));
+            }
+            start.countDown();
+            List<T> results = new ArrayList<>();
+            for (Future<T> future : futures){
+                results.add(future.get());
+            }
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
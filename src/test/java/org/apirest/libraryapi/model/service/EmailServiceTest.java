@@ -0,0 +1,111 @@
+package org.apirest.libraryapi.model.service;
+
+import com.icegreen.greenmail.junit5.GreenMailExtension;
+import com.icegreen.greenmail.util.ServerSetupTest;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.mail.Message;
+import jakarta.mail.internet.MimeMessage;
+import lombok.SneakyThrows;
+import org.apirest.libraryapi.service.EmailService;
+import org.apirest.libraryapi.service.impl.EmailServiceImpl;
+import org.apirest.libraryapi.service.mail.MailDispatcher;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.mockito.Mockito;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.SimpleMailMessage;
+import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.function.BooleanSupplier;
+import java.util.stream.IntStream;
+
+public class EmailServiceTest {
+
+    @RegisterExtension
+    static GreenMailExtension greenMail = new GreenMailExtension(ServerSetupTest.SMTP);
+
+    SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    MailDispatcher dispatcher;
+
+    @AfterEach
+    public void tearDown() throws InterruptedException {
+        dispatcher.stop();
+    }
+
+    @SneakyThrows
+    @Test
+    @DisplayName("Deve enviar uma mensagem por destinatário ao servidor SMTP")
+    public void sendOneMessagePerRecipientTest(){
+        JavaMailSenderImpl mailSender = new JavaMailSenderImpl();
+        mailSender.setHost("127.0.0.1");
+        mailSender.setPort(greenMail.getSmtp().getPort());
+        EmailService service = createService(mailSender);
+        List<String> mails = IntStream.rangeClosed(1, 25).mapToObj(i -> "customer" + i + "@gmail.com").toList();
+
+        service.sendMails("Empréstimo atrasado", mails);
+
+        Assertions.assertThat(greenMail.waitForIncomingEmail(10_000, mails.size())).isTrue();
+        MimeMessage[] received = greenMail.getReceivedMessages();
+        Assertions.assertThat(received).hasSize(mails.size());
+        for (MimeMessage message : received){
+            Assertions.assertThat(message.getRecipients(Message.RecipientType.TO)).hasSize(1);
+            Assertions.assertThat(message.getSubject()).isEqualTo("Livro com empréstimo atrasado");
+        }
+        awaitUntil(() -> meterRegistry.counter("library.mail.sent").count() == mails.size());
+    }
+
+    @Test
+    @DisplayName("Deve reenviar uma mensagem que falhou")
+    public void retryFailedMessageTest(){
+        JavaMailSender mailSender = Mockito.mock(JavaMailSender.class);
+        Mockito.doThrow(new MailSendException("SMTP indisponível"))
+                .doNothing()
+                .when(mailSender).send(Mockito.any(SimpleMailMessage[].class));
+        EmailService service = createService(mailSender);
+
+        service.sendMails("Empréstimo atrasado", List.of("bob@gmail.com"));
+
+        awaitUntil(() -> meterRegistry.counter("library.mail.sent").count() == 1);
+        Assertions.assertThat(meterRegistry.counter("library.mail.retried").count()).isEqualTo(1);
+        Assertions.assertThat(meterRegistry.counter("library.mail.failed").count()).isZero();
+    }
+
+    @Test
+    @DisplayName("Deve desistir de uma mensagem após o número máximo de tentativas")
+    public void giveUpAfterMaxAttemptsTest(){
+        JavaMailSender mailSender = Mockito.mock(JavaMailSender.class);
+        Mockito.doThrow(new MailSendException("SMTP indisponível"))
+                .when(mailSender).send(Mockito.any(SimpleMailMessage[].class));
+        EmailService service = createService(mailSender);
+
+        service.sendMails("Empréstimo atrasado", List.of("bob@gmail.com"));
+
+        awaitUntil(() -> meterRegistry.counter("library.mail.failed").count() == 1);
+        Assertions.assertThat(meterRegistry.counter("library.mail.retried").count()).isEqualTo(2);
+        Mockito.verify(mailSender, Mockito.times(3)).send(Mockito.any(SimpleMailMessage[].class));
+    }
+
+    private EmailService createService(JavaMailSender mailSender){
+        dispatcher = new MailDispatcher(mailSender, meterRegistry, 2, 100, 10, 3, 10, 1000, false);
+        dispatcher.start();
+        EmailServiceImpl service = new EmailServiceImpl(dispatcher);
+        ReflectionTestUtils.setField(service, "sender", "mail@library-api.com");
+        return service;
+    }
+
+    @SneakyThrows
+    private static void awaitUntil(BooleanSupplier condition){
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean()){
+            Assertions.assertThat(System.currentTimeMillis()).as("condition not met in time").isLessThan(deadline);
+            Thread.sleep(20);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package org.apirest.libraryapi.model.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apirest.libraryapi.model.entity.Book;
+import org.apirest.libraryapi.model.entity.Loan;
+import org.apirest.libraryapi.model.repository.BookRepository;
+import org.apirest.libraryapi.model.repository.JobLeaseRepository;
+import org.apirest.libraryapi.model.repository.LoanRepository;
+import org.apirest.libraryapi.service.LoanService;
+import org.apirest.libraryapi.service.OptimisticRetry;
+import org.apirest.libraryapi.service.impl.LoanServiceImpl;
+import org.apirest.libraryapi.service.overdue.LateLoanSweep;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+@ExtendWith(SpringExtension.class)
+@ActiveProfiles("test")
+@DataJpaTest
+@Import({LoanServiceImpl.class, OptimisticRetry.class, SimpleMeterRegistry.class})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+public class LateLoanSweepTest {
+
+    @Autowired
+    LoanService loanService;
+
+    @Autowired
+    LoanRepository loanRepository;
+
+    @Autowired
+    BookRepository bookRepository;
+
+    @Autowired
+    JobLeaseRepository leaseRepository;
+
+    @AfterEach
+    public void tearDown(){
+        leaseRepository.deleteAll();
+        loanRepository.deleteAll();
+        bookRepository.deleteAll();
+    }
+
+    @Test
+    @DisplayName("Deve dividir a varredura de atrasados entre instâncias sem notificar um empréstimo duas vezes")
+    public void concurrentSweepTest() throws Exception {
+        List<Long> overdue = createLoans(30, 6);
+        Queue<Long> notified = new ConcurrentLinkedQueue<>();
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        try {
+            for (String owner : List.of("a", "b", "c")){
+                LateLoanSweep sweep = sweep(owner, Duration.ofMinutes(5));
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    sweep.sweep(4, loans -> loans.forEach(loan -> notified.add(loan.getId())));
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures){
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Assertions.assertThat(notified).containsExactlyInAnyOrderElementsOf(overdue);
+        Assertions.assertThat(leaseRepository.findAll())
+                .filteredOn(lease -> lease.getName().startsWith("late-loans-"))
+                .hasSize(Loan.SWEEP_PARTITIONS)
+                .allSatisfy(lease -> Assertions.assertThat(lease.getCompleted()).isTrue());
+    }
+
+    @Test
+    @DisplayName("Deve retomar a partição de uma instância que parou a partir do último empréstimo processado")
+    public void takeOverExpiredLeaseTest(){
+        // consecutive book ids put at least two loans in every partition
+        List<Long> overdue = createLoans(2 * Loan.SWEEP_PARTITIONS, 0);
+        List<Long> notified = new ArrayList<>();
+        List<List<Loan>> chunks = new ArrayList<>();
+
+        // leases of zero length are expired as soon as they are taken, as if the instance had died
+        sweep("dead", Duration.ZERO).sweep(1, loans -> {
+            if (!chunks.isEmpty()){
+                throw new IllegalStateException("instance stopped");
+            }
+            chunks.add(loans);
+            loans.forEach(loan -> notified.add(loan.getId()));
+        });
+        Assertions.assertThat(notified).hasSize(1);
+
+        sweep("alive", Duration.ofMinutes(5)).sweep(1, loans -> loans.forEach(loan -> notified.add(loan.getId())));
+
+        Assertions.assertThat(notified).containsExactlyInAnyOrderElementsOf(overdue);
+    }
+
+    private LateLoanSweep sweep(String owner, Duration lease){
+        return new LateLoanSweep(leaseRepository, loanService, lease, Clock.systemDefaultZone(), owner);
+    }
+
+    /**
+     * Creates {@code overdue} open loans past their due date and {@code others} that are either
+     * returned or not yet due, returning the overdue loan ids in id order.
+     */
+    private List<Long> createLoans(int overdue, int others){
+        LocalDate today = LocalDate.now();
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < overdue + others; i++){
+            Book book = bookRepository.save(Book.builder().title("Livro " + i).author("Autor").isbn("sweep-" + i).build());
+            boolean late = i < overdue;
+            Loan loan = loanRepository.save(Loan.builder().book(book).customer("Cliente " + i)
+                    .loanDate(today.minusDays(10))
+                    .dueDate(late || i % 2 == 0 ? today.minusDays(1) : today.plusDays(1))
+                    .returned(!late && i % 2 == 0)
+                    .build());
+            if (late){
+                ids.add(loan.getId());
+            }
+        }
+        return ids;
+    }
+}
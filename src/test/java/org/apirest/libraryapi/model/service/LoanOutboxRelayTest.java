@@ -0,0 +1,138 @@
+package org.apirest.libraryapi.model.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apirest.libraryapi.exception.BusinessException;
+import org.apirest.libraryapi.model.entity.Book;
+import org.apirest.libraryapi.model.entity.Loan;
+import org.apirest.libraryapi.model.entity.LoanEvent;
+import org.apirest.libraryapi.model.repository.BookRepository;
+import org.apirest.libraryapi.model.repository.JobLeaseRepository;
+import org.apirest.libraryapi.model.repository.LoanEventRepository;
+import org.apirest.libraryapi.model.repository.LoanRepository;
+import org.apirest.libraryapi.service.LoanService;
+import org.apirest.libraryapi.service.OptimisticRetry;
+import org.apirest.libraryapi.service.impl.LoanServiceImpl;
+import org.apirest.libraryapi.service.outbox.LoanOutboxRelay;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.domain.Sort;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.AssertionsForClassTypes.catchThrowable;
+
+@ExtendWith(SpringExtension.class)
+@ActiveProfiles("test")
+@DataJpaTest
+@Import({LoanServiceImpl.class, OptimisticRetry.class, SimpleMeterRegistry.class})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+public class LoanOutboxRelayTest {
+
+    @Autowired
+    LoanService loanService;
+
+    @Autowired
+    LoanRepository loanRepository;
+
+    @Autowired
+    BookRepository bookRepository;
+
+    @Autowired
+    LoanEventRepository eventRepository;
+
+    @Autowired
+    JobLeaseRepository leaseRepository;
+
+    @AfterEach
+    public void tearDown(){
+        eventRepository.deleteAll();
+        leaseRepository.deleteAll();
+        loanRepository.deleteAll();
+        bookRepository.deleteAll();
+    }
+
+    @Test
+    @DisplayName("Deve gravar os eventos do empréstimo na mesma transação da alteração")
+    public void writeEventsWithLoanTest(){
+        Book book = bookRepository.save(Book.builder().title("O Hobbit").author("J.R.R Tolkien").isbn("outbox-1").build());
+        Loan first = loanService.save(loan(book));
+        Throwable e = catchThrowable(() -> loanService.save(loan(book)));
+        loanService.returnLoans(List.of(first.getId()));
+        Loan second = loanService.save(loan(book));
+        loanService.returnLoan(second.getId(), true);
+
+        Assertions.assertThat(e).isInstanceOf(BusinessException.class);
+        Assertions.assertThat(eventRepository.findAll(Sort.by("id")))
+                .extracting(LoanEvent::getType, LoanEvent::getLoanId, LoanEvent::getBookId)
+                .containsExactly(
+                        Assertions.tuple(LoanEvent.Type.CREATED, first.getId(), book.getId()),
+                        Assertions.tuple(LoanEvent.Type.RETURNED, first.getId(), book.getId()),
+                        Assertions.tuple(LoanEvent.Type.CREATED, second.getId(), book.getId()),
+                        Assertions.tuple(LoanEvent.Type.RETURNED, second.getId(), book.getId()));
+    }
+
+    @Test
+    @DisplayName("Deve entregar os eventos em lotes e reentregar o lote que falhou")
+    public void relayInBatchesTest(){
+        List<Long> loanIds = new ArrayList<>();
+        for (int i = 0; i < 5; i++){
+            Book book = bookRepository.save(Book.builder().title("Livro " + i).author("Autor").isbn("outbox-" + i).build());
+            loanIds.add(loanService.save(loan(book)).getId());
+        }
+        List<List<Long>> batches = new ArrayList<>();
+        List<Integer> attempts = new ArrayList<>();
+        LoanOutboxRelay relay = new LoanOutboxRelay(eventRepository, leaseRepository,
+                List.of(events -> {
+                    attempts.add(events.size());
+                    if (attempts.size() == 2){
+                        throw new IllegalStateException("consumer unavailable");
+                    }
+                    batches.add(events.stream().map(LoanEvent::getLoanId).toList());
+                }),
+                new SimpleMeterRegistry(), 2, Duration.ofSeconds(30), Clock.systemDefaultZone(), "relay");
+
+        relay.relay();
+        relay.relay();
+
+        Assertions.assertThat(attempts).containsExactly(2, 2, 2, 1);
+        Assertions.assertThat(batches).containsExactly(loanIds.subList(0, 2), loanIds.subList(2, 4), loanIds.subList(4, 5));
+        Assertions.assertThat(eventRepository.count()).isZero();
+    }
+
+    @Test
+    @DisplayName("Deve entregar os eventos apenas pela instância que detém o lease")
+    public void relayOnlyWithLeaseTest(){
+        Book book = bookRepository.save(Book.builder().title("O Hobbit").author("J.R.R Tolkien").isbn("outbox-1").build());
+        loanService.save(loan(book));
+        List<LoanEvent> delivered = new ArrayList<>();
+        LoanOutboxRelay leader = new LoanOutboxRelay(eventRepository, leaseRepository, List.of(delivered::addAll),
+                new SimpleMeterRegistry(), 10, Duration.ofMinutes(5), Clock.systemDefaultZone(), "leader");
+        LoanOutboxRelay follower = new LoanOutboxRelay(eventRepository, leaseRepository, List.of(delivered::addAll),
+                new SimpleMeterRegistry(), 10, Duration.ofMinutes(5), Clock.systemDefaultZone(), "follower");
+
+        leader.relay();
+        loanService.returnLoans(List.of(delivered.get(0).getLoanId()));
+        follower.relay();
+
+        Assertions.assertThat(delivered).extracting(LoanEvent::getType).containsExactly(LoanEvent.Type.CREATED);
+        Assertions.assertThat(eventRepository.count()).isEqualTo(1);
+    }
+
+    private static Loan loan(Book book){
+        return Loan.builder().book(book).customer("Bob").loanDate(LocalDate.now()).build();
+    }
+}
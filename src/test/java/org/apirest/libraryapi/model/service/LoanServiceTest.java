@@ -1,11 +1,21 @@
 package org.apirest.libraryapi.model.service;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.persistence.EntityManager;
 import org.apirest.libraryapi.api.dto.LoanFilterDto;
+import org.apirest.libraryapi.api.dto.LoanReturnResultDto;
 import org.apirest.libraryapi.exception.BusinessException;
 import org.apirest.libraryapi.model.entity.Book;
+import org.apirest.libraryapi.model.entity.BookAvailability;
 import org.apirest.libraryapi.model.entity.Loan;
+import org.apirest.libraryapi.model.entity.LoanEvent;
+import org.apirest.libraryapi.model.repository.BookAvailabilityRepository;
+import org.apirest.libraryapi.model.repository.JobLeaseRepository;
+import org.apirest.libraryapi.model.repository.LoanEventRepository;
 import org.apirest.libraryapi.model.repository.LoanRepository;
+import org.apirest.libraryapi.service.LoanDueDateEvent;
 import org.apirest.libraryapi.service.LoanService;
+import org.apirest.libraryapi.service.OptimisticRetry;
 import org.apirest.libraryapi.service.impl.LoanServiceImpl;
 import org.assertj.core.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
@@ -14,16 +24,28 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Mockito;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.ScrollPosition;
+import org.springframework.data.domain.Window;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 
+import java.time.Instant;
 import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
 import static org.assertj.core.api.AssertionsForClassTypes.catchThrowable;
 
@@ -36,9 +58,21 @@ public class LoanServiceTest {
     @MockBean
     LoanRepository repository;
 
+    @MockBean
+    LoanEventRepository outbox;
+
+    @MockBean
+    BookAvailabilityRepository availability;
+
+    ApplicationEventPublisher eventPublisher;
+
     @BeforeEach
     public void setUp(){
-        this.service = new LoanServiceImpl(repository);
+        this.eventPublisher = Mockito.mock(ApplicationEventPublisher.class);
+        OptimisticRetry optimisticRetry = new OptimisticRetry(Mockito.mock(PlatformTransactionManager.class),
+                new SimpleMeterRegistry(), 3, 0);
+        this.service = new LoanServiceImpl(repository, outbox, availability, Mockito.mock(JobLeaseRepository.class),
+                Mockito.mock(EntityManager.class), optimisticRetry, eventPublisher, 4);
     }
 
     public static Loan createLoan(){
@@ -73,14 +107,40 @@ public class LoanServiceTest {
                 .loanDate(LocalDate.now())
                 .build();
 
-        Mockito.when(repository.existsBookAlreadyLoaned(book)).thenReturn(false);
-        Mockito.when(repository.save(loan)).thenReturn(savedLoan);
+        Mockito.when(repository.saveAndFlush(loan)).thenReturn(savedLoan);
         Loan loan1 = service.save(loan);
 
         Assertions.assertThat(loan1.getId()).isEqualTo(savedLoan.getId());
         Assertions.assertThat(loan1.getBook().getId()).isEqualTo(savedLoan.getBook().getId());
         Assertions.assertThat(loan1.getLoanDate()).isEqualTo(savedLoan.getLoanDate());
         Assertions.assertThat(loan1.getCustomer()).isEqualTo(savedLoan.getCustomer());
+        Mockito.verify(outbox).save(Mockito.argThat(event -> event.getType() == LoanEvent.Type.CREATED
+                && event.getLoanId().equals(id) && event.getBookId().equals(id)));
+        Mockito.verify(availability).lend(id, id, 1);
+        Mockito.verify(availability).save(Mockito.argThat(row -> row.getStatus() == BookAvailability.Status.LOANED
+                && row.getCurrentLoanId().equals(id) && row.getBorrowCount() == 1));
+    }
+
+    @Test
+    @DisplayName("Deve definir a data de devolução pelo prazo do livro ou pelo prazo padrão")
+    public void saveLoanDueDateTest(){
+        LocalDate today = LocalDate.now();
+        Loan withBookPeriod = createLoan();
+        withBookPeriod.setId(1L);
+        withBookPeriod.getBook().setLoanDays(7);
+        Loan withDefaultPeriod = createLoan();
+        withDefaultPeriod.setId(2L);
+        Loan withOwnDueDate = createLoan();
+        withOwnDueDate.setId(3L);
+        withOwnDueDate.setDueDate(today.plusDays(1));
+        Mockito.when(repository.saveAndFlush(Mockito.any(Loan.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        Assertions.assertThat(service.save(withBookPeriod).getDueDate()).isEqualTo(today.plusDays(7));
+        Assertions.assertThat(service.save(withDefaultPeriod).getDueDate()).isEqualTo(today.plusDays(4));
+        Assertions.assertThat(service.save(withOwnDueDate).getDueDate()).isEqualTo(today.plusDays(1));
+        Mockito.verify(eventPublisher).publishEvent(new LoanDueDateEvent(List.of(1L), today.plusDays(7)));
+        Mockito.verify(eventPublisher).publishEvent(new LoanDueDateEvent(List.of(2L), today.plusDays(4)));
+        Mockito.verify(eventPublisher).publishEvent(new LoanDueDateEvent(List.of(3L), today.plusDays(1)));
     }
 
     @Test
@@ -95,12 +155,24 @@ public class LoanServiceTest {
                 .customer("Bob")
                 .loanDate(LocalDate.now())
                 .build();
-        Mockito.when(repository.existsBookAlreadyLoaned(book)).thenReturn(true);
+        Mockito.when(repository.saveAndFlush(loan)).thenThrow(BookServiceTest.violationOf("PUBLIC.UK_LOAN_ACTIVE_BOOK_INDEX_2"));
 
         Throwable e = catchThrowable(()-> service.save(loan));
 
         Assertions.assertThat(e).isInstanceOf(BusinessException.class).hasMessage("Book already loaned");
-        Mockito.verify(repository, Mockito.never()).save(loan);
+        Mockito.verify(repository, Mockito.never()).existsBookAlreadyLoaned(book);
+    }
+
+    @Test
+    @DisplayName("Deve propagar violações de integridade que não sejam de livro já emprestado")
+    public void saveLoanOtherViolationTest(){
+        Loan loan = createLoan();
+        DataIntegrityViolationException violation = BookServiceTest.violationOf("FK_LOAN_BOOK");
+        Mockito.when(repository.saveAndFlush(Mockito.any(Loan.class))).thenThrow(violation);
+        Mockito.when(repository.findById(1L)).thenReturn(Optional.of(createLoan()));
+
+        Assertions.assertThat(catchThrowable(() -> service.save(loan))).isSameAs(violation);
+        Assertions.assertThat(catchThrowable(() -> service.returnLoan(1L, false))).isSameAs(violation);
     }
 
     @Test
@@ -152,9 +224,8 @@ public class LoanServiceTest {
 
         List<Loan> list = Arrays.asList(loan);
         Page<Loan> page = new PageImpl<>(list, pageRequest, list.size());
-        Mockito.when(repository.findByBookIsbnOrCustomer(
-                Mockito.anyString(),
-                Mockito.anyString(),
+        Mockito.when(repository.findAll(
+                Mockito.<Specification<Loan>>any(),
                 Mockito.any(PageRequest.class)))
         .thenReturn(page);
 
@@ -165,4 +236,116 @@ public class LoanServiceTest {
         Assertions.assertThat(result.getPageable().getPageNumber()).isEqualTo(0);
         Assertions.assertThat(result.getPageable().getPageSize()).isEqualTo(10);
     }
+
+    @Test
+    @DisplayName("Deve filtrar emprestimos a partir de um cursor")
+    public void filterLoanAfterCursorTest(){
+        LoanFilterDto dto = LoanFilterDto.builder()
+                .customer("Bob")
+                .build();
+        Loan first = createLoan();
+        first.setId(11L);
+        Loan second = createLoan();
+        second.setId(12L);
+        Window<Loan> window = Window.from(Arrays.asList(first, second),
+                i -> ScrollPosition.forward(Map.of("id", i == 0 ? 11L : 12L)), true);
+        Mockito.when(repository.findBy(Mockito.<Specification<Loan>>any(), Mockito.any()))
+                .thenReturn(window);
+
+        Window<Loan> result = service.findByFilter(dto, ScrollPosition.forward(Map.of("id", 10L)), 2);
+
+        Assertions.assertThat(result.getContent()).containsExactly(first, second);
+        Assertions.assertThat(result.hasNext()).isTrue();
+        Assertions.assertThat(result.positionAt(1)).isEqualTo(ScrollPosition.forward(Map.of("id", 12L)));
+    }
+
+    @Test
+    @DisplayName("Deve buscar os empréstimos atrasados de uma partição a partir do último processado")
+    public void findOverdueLoansInPartitionTest(){
+        LocalDate today = LocalDate.now();
+        LocalDate dueDate = today.minusDays(1);
+        Loan first = createLoan();
+        first.setId(1L);
+        Loan second = createLoan();
+        second.setId(5L);
+        Mockito.when(repository.findOverdueLoansInPartition(today, 1, PageRequest.ofSize(2)))
+                .thenReturn(Arrays.asList(first));
+        Mockito.when(repository.findOverdueLoansInPartitionAfter(today, 1, dueDate, 2L, PageRequest.ofSize(2)))
+                .thenReturn(Arrays.asList(second));
+
+        Assertions.assertThat(service.findOverdueLoansInPartition(today, 1, null, null, 2)).containsExactly(first);
+        Assertions.assertThat(service.findOverdueLoansInPartition(today, 1, dueDate, 2L, 2)).containsExactly(second);
+    }
+
+    @Test
+    @DisplayName("Deve devolver um empréstimo relendo-o quando houver conflito de versão")
+    public void returnLoanRetryingConflictTest(){
+        Mockito.when(repository.findById(1L)).thenAnswer(invocation -> {
+            Loan loan = createLoan();
+            loan.setId(1L);
+            return Optional.of(loan);
+        });
+        Mockito.when(repository.saveAndFlush(Mockito.any(Loan.class)))
+                .thenThrow(new ObjectOptimisticLockingFailureException(Loan.class, 1L))
+                .thenAnswer(invocation -> invocation.getArgument(0));
+
+        Optional<Loan> returned = service.returnLoan(1L, true);
+
+        Assertions.assertThat(returned).isPresent();
+        Assertions.assertThat(returned.get().getReturned()).isTrue();
+        Mockito.verify(repository, Mockito.times(2)).findById(1L);
+        Mockito.verify(outbox).save(Mockito.argThat(event -> event.getType() == LoanEvent.Type.RETURNED));
+    }
+
+    @Test
+    @DisplayName("Deve registrar evento de devolução apenas quando a situação do empréstimo muda")
+    public void returnLoanEventOnlyOnChangeTest(){
+        Loan loan = createLoan();
+        loan.setId(1L);
+        loan.setReturned(true);
+        Mockito.when(repository.findById(1L)).thenReturn(Optional.of(loan));
+        Mockito.when(repository.saveAndFlush(Mockito.any(Loan.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        service.returnLoan(1L, true);
+        Mockito.verify(outbox, Mockito.never()).save(Mockito.any(LoanEvent.class));
+        Mockito.verifyNoInteractions(availability);
+
+        Mockito.when(availability.lend(1L, 1L, 0)).thenReturn(1);
+        service.returnLoan(1L, false);
+        Mockito.verify(outbox).save(Mockito.argThat(event -> event.getType() == LoanEvent.Type.REOPENED));
+        Mockito.verify(availability).lend(1L, 1L, 0);
+        Mockito.verify(availability, Mockito.never()).save(Mockito.any(BookAvailability.class));
+    }
+
+    @Test
+    @DisplayName("Deve devolver empréstimos em lote informando os ausentes e os já devolvidos")
+    public void returnLoansTest(){
+        Mockito.when(repository.lockOpenLoanIds(Arrays.asList(1L, 2L, 3L))).thenReturn(Arrays.asList(1L));
+        Mockito.when(repository.findExistingIds(Arrays.asList(2L, 3L))).thenReturn(Arrays.asList(2L));
+
+        LoanReturnResultDto result = service.returnLoans(Arrays.asList(1L, 2L, 3L, 1L));
+
+        Assertions.assertThat(result.getReturned()).containsExactly(1L);
+        Assertions.assertThat(result.getAlreadyReturned()).containsExactly(2L);
+        Assertions.assertThat(result.getMissing()).containsExactly(3L);
+        Mockito.verify(repository).markReturned(Set.of(1L));
+        Mockito.verify(repository, Mockito.never()).save(Mockito.any(Loan.class));
+        Mockito.verify(eventPublisher).publishEvent(new LoanDueDateEvent(List.of(1L), null));
+        Mockito.verify(outbox).insertReturned(Mockito.eq(Set.of(1L)), Mockito.any(Instant.class));
+        Mockito.verify(availability).release(Set.of(1L));
+    }
+
+    @Test
+    @DisplayName("Deve processar em blocos apenas os empréstimos informados ainda atrasados")
+    public void processOverdueLoansTest(){
+        LocalDate today = LocalDate.now();
+        Loan overdue = createLoan();
+        Mockito.when(repository.findOverdueLoansByIds(List.of(1L, 2L), today)).thenReturn(List.of(overdue));
+        Mockito.when(repository.findOverdueLoansByIds(List.of(3L), today)).thenReturn(List.of());
+        List<List<Loan>> chunks = new ArrayList<>();
+
+        service.processOverdueLoans(List.of(1L, 2L, 1L, 3L), 2, chunks::add);
+
+        Assertions.assertThat(chunks).containsExactly(List.of(overdue));
+    }
 }
@@ -0,0 +1,124 @@
+package org.apirest.libraryapi.model.service;
+
+import org.apirest.libraryapi.service.LoanDueDateEvent;
+import org.apirest.libraryapi.service.LoanService;
+import org.apirest.libraryapi.service.ScheduleService;
+import org.apirest.libraryapi.service.overdue.OverdueLoanTracker;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mockito;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+@ExtendWith(SpringExtension.class)
+@ActiveProfiles("test")
+public class OverdueLoanTrackerTest {
+
+    static final LocalDate TODAY = LocalDate.of(2024, 6, 10);
+
+    OverdueLoanTracker tracker;
+
+    @MockBean
+    LoanService loanService;
+
+    @MockBean
+    ScheduleService scheduleService;
+
+    @MockBean
+    TaskScheduler taskScheduler;
+
+    ScheduledFuture<?> future;
+
+    @BeforeEach
+    public void setUp(){
+        Clock clock = Clock.fixed(TODAY.atTime(9, 0).toInstant(ZoneOffset.UTC), ZoneOffset.UTC);
+        this.tracker = new OverdueLoanTracker(loanService, scheduleService, taskScheduler, clock);
+        this.future = Mockito.mock(ScheduledFuture.class);
+        Mockito.doReturn(future).when(taskScheduler).schedule(Mockito.any(Runnable.class), Mockito.any(Instant.class));
+        Mockito.when(scheduleService.getChunkSize()).thenReturn(500);
+    }
+
+    @Test
+    @DisplayName("Deve carregar os empréstimos em aberto e agendar o vencimento mais próximo")
+    @SuppressWarnings("unchecked")
+    public void loadOpenLoansTest(){
+        Mockito.doAnswer(invocation -> {
+            BiConsumer<Long, LocalDate> consumer = invocation.getArgument(1);
+            consumer.accept(1L, TODAY.plusDays(2));
+            consumer.accept(2L, TODAY.plusDays(1));
+            return null;
+        }).when(loanService).forEachOpenLoanDue(Mockito.eq(TODAY), Mockito.any(BiConsumer.class));
+
+        tracker.load();
+
+        Assertions.assertThat(tracker.size()).isEqualTo(2);
+        Mockito.verify(taskScheduler).schedule(Mockito.any(Runnable.class), Mockito.eq(startOf(TODAY.plusDays(1))));
+    }
+
+    @Test
+    @DisplayName("Deve deixar de acompanhar empréstimos devolvidos e reagendar o próximo vencimento")
+    public void untrackReturnedLoansTest(){
+        tracker.onLoanDueDate(new LoanDueDateEvent(List.of(1L), TODAY.plusDays(2)));
+        tracker.onLoanDueDate(new LoanDueDateEvent(List.of(2L), TODAY.plusDays(1)));
+
+        tracker.onLoanDueDate(new LoanDueDateEvent(List.of(2L), null));
+
+        Assertions.assertThat(tracker.size()).isEqualTo(1);
+        Mockito.verify(future, Mockito.times(2)).cancel(false);
+        Mockito.verify(taskScheduler, Mockito.times(2))
+                .schedule(Mockito.any(Runnable.class), Mockito.eq(startOf(TODAY.plusDays(2))));
+
+        tracker.onLoanDueDate(new LoanDueDateEvent(List.of(1L), null));
+
+        Assertions.assertThat(tracker.size()).isZero();
+        Mockito.verify(future, Mockito.times(3)).cancel(false);
+    }
+
+    @Test
+    @DisplayName("Deve notificar apenas os empréstimos que atingiram o vencimento")
+    @SuppressWarnings("unchecked")
+    public void fireOverdueLoansTest(){
+        tracker.onLoanDueDate(new LoanDueDateEvent(List.of(1L, 2L), TODAY));
+        tracker.onLoanDueDate(new LoanDueDateEvent(List.of(3L), TODAY.plusDays(1)));
+
+        tracker.fire();
+
+        Mockito.verify(loanService).processOverdueLoans(Mockito.argThat(ids -> ids.size() == 2 && ids.containsAll(List.of(1L, 2L))),
+                Mockito.eq(500), Mockito.any(Consumer.class));
+        Assertions.assertThat(tracker.size()).isEqualTo(1);
+        Mockito.verify(taskScheduler).schedule(Mockito.any(Runnable.class), Mockito.eq(startOf(TODAY.plusDays(1))));
+    }
+
+    @Test
+    @DisplayName("Deve manter os empréstimos e tentar novamente quando a notificação falhar")
+    @SuppressWarnings("unchecked")
+    public void fireRetryOnFailureTest(){
+        tracker.onLoanDueDate(new LoanDueDateEvent(List.of(1L), TODAY));
+        Mockito.doThrow(new IllegalStateException("database down"))
+                .when(loanService).processOverdueLoans(Mockito.anyCollection(), Mockito.anyInt(), Mockito.any(Consumer.class));
+
+        tracker.fire();
+
+        Assertions.assertThat(tracker.size()).isEqualTo(1);
+        Mockito.verify(taskScheduler).schedule(Mockito.any(Runnable.class),
+                Mockito.eq(TODAY.atTime(9, 1).toInstant(ZoneOffset.UTC)));
+    }
+
+    private static Instant startOf(LocalDate date){
+        return date.atStartOfDay(ZoneOffset.UTC).toInstant();
+    }
+}
@@ -0,0 +1,60 @@
+package org.apirest.libraryapi.model.service;
+
+import org.apirest.libraryapi.model.entity.Loan;
+import org.apirest.libraryapi.service.EmailService;
+import org.apirest.libraryapi.service.ScheduleService;
+import org.apirest.libraryapi.service.overdue.LateLoanSweep;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mockito;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+@ExtendWith(SpringExtension.class)
+@ActiveProfiles("test")
+public class ScheduleServiceTest {
+
+    ScheduleService service;
+
+    @MockBean
+    LateLoanSweep lateLoanSweep;
+
+    @MockBean
+    EmailService emailService;
+
+    @BeforeEach
+    public void setUp(){
+        this.service = new ScheduleService(lateLoanSweep, emailService);
+        ReflectionTestUtils.setField(service, "message", "Empréstimo atrasado");
+        ReflectionTestUtils.setField(service, "chunkSize", 2);
+    }
+
+    @Test
+    @DisplayName("Deve enviar um e-mail por bloco de empréstimos atrasados")
+    @SuppressWarnings("unchecked")
+    public void sendMailToLateLoansPerChunkTest(){
+        Mockito.doAnswer(invocation -> {
+            Consumer<List<Loan>> consumer = invocation.getArgument(1);
+            consumer.accept(List.of(loan("bob@gmail.com"), loan(null)));
+            consumer.accept(List.of(loan("alice@gmail.com")));
+            return null;
+        }).when(lateLoanSweep).sweep(Mockito.eq(2), Mockito.any(Consumer.class));
+
+        service.sendMailToLateLoans();
+
+        Mockito.verify(emailService).sendMails("Empréstimo atrasado", List.of("bob@gmail.com"));
+        Mockito.verify(emailService).sendMails("Empréstimo atrasado", List.of("alice@gmail.com"));
+        Mockito.verifyNoMoreInteractions(emailService);
+    }
+
+    private static Loan loan(String email){
+        return Loan.builder().customer("Bob").customerEmail(email).build();
+    }
+}